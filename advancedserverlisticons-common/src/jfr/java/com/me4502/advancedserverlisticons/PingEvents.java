@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java Flight Recorder events for each stage of a ping.
+ *
+ * Only {@link PingTracer} may touch this class, as it fails to load on
+ * runtimes without JFR.
+ */
+final class PingEvents implements PingEventSink {
+
+    private static final Set<Long> runningRecordings = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether any recording is running. While none is, pings skip creating
+     * events entirely.
+     */
+    private static volatile boolean active;
+
+    private static Recording recording;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateState(changed);
+            }
+        });
+        if (FlightRecorder.isInitialized()) {
+            // Recordings started before the listener was added, such as from the command line.
+            FlightRecorder.getFlightRecorder().getRecordings().forEach(PingEvents::updateState);
+        }
+    }
+
+    PingEvents() {
+    }
+
+    private static void updateState(Recording changed) {
+        if (changed.getState() == RecordingState.RUNNING) {
+            runningRecordings.add(changed.getId());
+        } else {
+            runningRecordings.remove(changed.getId());
+        }
+        active = !runningRecordings.isEmpty();
+    }
+
+    @Category({"AdvancedServerListIcons", "Ping"})
+    @StackTrace(false)
+    abstract static class PingStageEvent extends Event {
+        @Label("Player")
+        String uuid;
+
+        @Label("Definition")
+        String definition;
+
+        @Label("Cache Outcome")
+        String cacheOutcome;
+    }
+
+    @Name("com.me4502.advancedserverlisticons.AddressLookup")
+    @Label("Address Lookup")
+    @Description("Looking up the player of a pinging address")
+    static class AddressLookup extends PingStageEvent {
+    }
+
+    @Name("com.me4502.advancedserverlisticons.ProfileResolve")
+    @Label("Profile Resolve")
+    @Description("Resolving the name and profile of a player")
+    static class ProfileResolve extends PingStageEvent {
+    }
+
+    @Name("com.me4502.advancedserverlisticons.DefinitionCheck")
+    @Label("Definition Check")
+    @Description("Checking permissions to pick the image definition of a player")
+    static class DefinitionCheck extends PingStageEvent {
+    }
+
+    @Name("com.me4502.advancedserverlisticons.HeadLoad")
+    @Label("Head Load")
+    @Description("Loading a head from disk, or fetching it from the skin servers")
+    static class HeadLoad extends PingStageEvent {
+    }
+
+    @Name("com.me4502.advancedserverlisticons.Composite")
+    @Label("Composite")
+    @Description("Rendering the icon from the head and definition images")
+    static class Composite extends PingStageEvent {
+    }
+
+    @Name("com.me4502.advancedserverlisticons.FaviconCreate")
+    @Label("Favicon Create")
+    @Description("Creating the platform favicon from the rendered icon")
+    static class FaviconCreate extends PingStageEvent {
+    }
+
+    @Override
+    public Object begin(PingTracer.Stage stage) {
+        if (!active) {
+            return null;
+        }
+        PingStageEvent event;
+        switch (stage) {
+            case ADDRESS_LOOKUP:
+                event = new AddressLookup();
+                break;
+            case PROFILE_RESOLVE:
+                event = new ProfileResolve();
+                break;
+            case DEFINITION_CHECK:
+                event = new DefinitionCheck();
+                break;
+            case HEAD_LOAD:
+                event = new HeadLoad();
+                break;
+            case COMPOSITE:
+                event = new Composite();
+                break;
+            default:
+                event = new FaviconCreate();
+                break;
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void end(Object token, UUID uuid, String definition, String cacheOutcome) {
+        PingStageEvent event = (PingStageEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.uuid = uuid == null ? null : uuid.toString();
+            event.definition = definition;
+            event.cacheOutcome = cacheOutcome;
+            event.commit();
+        }
+    }
+
+    @Override
+    public synchronized void startRecording(Duration maxAge) throws IOException, ParseException {
+        if (recording != null) {
+            recording.close();
+        }
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("AdvancedServerListIcons");
+        recording.setToDisk(true);
+        recording.setMaxAge(maxAge);
+        recording.enable(AddressLookup.class).withThreshold(Duration.ZERO);
+        recording.enable(ProfileResolve.class).withThreshold(Duration.ZERO);
+        recording.enable(DefinitionCheck.class).withThreshold(Duration.ZERO);
+        recording.enable(HeadLoad.class).withThreshold(Duration.ZERO);
+        recording.enable(Composite.class).withThreshold(Duration.ZERO);
+        recording.enable(FaviconCreate.class).withThreshold(Duration.ZERO);
+        recording.start();
+    }
+
+    @Override
+    public synchronized boolean dumpRecording(Path file) throws IOException {
+        if (recording == null) {
+            return false;
+        }
+        recording.dump(file);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean stopRecording() {
+        if (recording == null) {
+            return false;
+        }
+        recording.close();
+        recording = null;
+        return true;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * AdminCommands.
+ *
+ * Platform independent handling of the /asli admin command.
+ */
+public class AdminCommands {
+
+    public static final String PERMISSION = "advancedserverlisticons.admin";
+
+    public static final String USAGE = "/asli <jfr <start [minutes]|dump [name]|stop>|export [name]|import <name>>";
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    private final AtomicBoolean bulkRunning = new AtomicBoolean();
+
+    /**
+     * Runs an admin command.
+     *
+     * @param args The arguments after the command name
+     * @param reply Receives messages for the sender
+     */
+    public void handle(String[] args, Consumer<String> reply) {
+        if (args.length >= 2 && args[0].equalsIgnoreCase("jfr")) {
+            handleFlightRecorder(args, reply);
+        } else if (args.length >= 1 && args[0].equalsIgnoreCase("export")) {
+            String name = args.length >= 2 ? args[1] : "addresses-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".ndjson.gz";
+            runBulk("export", getExportFile(name), reply);
+        } else if (args.length >= 2 && args[0].equalsIgnoreCase("import")) {
+            runBulk("import", getExportFile(args[1]), reply);
+        } else {
+            reply.accept("Usage: " + USAGE);
+        }
+    }
+
+    private static File getExportFile(String name) {
+        File exports = new File(AdvancedServerListIcons.inst().getDataFolder(), "exports");
+        exports.mkdirs();
+        return new File(exports, new File(name).getName());
+    }
+
+    /**
+     * Exports or imports the address table on a background thread, as it
+     * can take minutes on large tables. Files ending in .gz are compressed.
+     *
+     * @param operation Either export or import
+     * @param file The file to write or read
+     * @param reply Receives progress messages
+     */
+    private void runBulk(String operation, File file, Consumer<String> reply) {
+        DatabaseManager databaseManager = AdvancedServerListIcons.inst().getDatabaseManager();
+        if (databaseManager == null) {
+            reply.accept("Exports and imports aren't available in proxy mode, run them on the proxy instead.");
+            return;
+        }
+        if (!databaseManager.isReady()) {
+            reply.accept("The database is not connected yet.");
+            return;
+        }
+        if (operation.equals("import") && !file.exists()) {
+            reply.accept("No file named " + file.getName() + " in " + file.getParent());
+            return;
+        }
+        if (!bulkRunning.compareAndSet(false, true)) {
+            reply.accept("An export or import is already running.");
+            return;
+        }
+
+        Thread thread = new Thread(() -> {
+            long[] lastReport = {System.currentTimeMillis()};
+            DatabaseManager.ProgressListener listener = (rows, elapsed) -> {
+                if (System.currentTimeMillis() - lastReport[0] >= PROGRESS_INTERVAL) {
+                    lastReport[0] = System.currentTimeMillis();
+                    reply.accept(operation + ": " + rows + " rows so far, " + getRate(rows, elapsed) + " rows/s");
+                }
+            };
+
+            long start = System.currentTimeMillis();
+            try {
+                long rows;
+                if (operation.equals("export")) {
+                    rows = exportAddresses(databaseManager, file, listener);
+                } else {
+                    try (InputStream in = openInput(file)) {
+                        rows = databaseManager.importAddresses(in, listener);
+                    }
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                String message = "Finished " + operation + " of " + rows + " rows " + (operation.equals("export") ? "to " : "from ")
+                        + file.getName() + " in " + elapsed + "ms, " + getRate(rows, elapsed) + " rows/s";
+                reply.accept(message);
+                AdvancedServerListIcons.inst().getLogger().info(message);
+            } catch (Exception e) {
+                reply.accept("Failed to " + operation + " addresses: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                bulkRunning.set(false);
+            }
+        }, "ASLI Address " + operation);
+        thread.setDaemon(true);
+        thread.start();
+        reply.accept("Started " + operation + " of addresses " + (operation.equals("export") ? "to " : "from ") + file.getPath());
+    }
+
+    /**
+     * Exports to a temporary file and only moves it into place once the
+     * export succeeded, so a failed export never leaves a truncated file
+     * under the requested name.
+     *
+     * @param databaseManager The database manager
+     * @param file The file to export to
+     * @param listener The progress listener
+     * @return The number of rows exported
+     * @throws Exception If the export failed
+     */
+    private static long exportAddresses(DatabaseManager databaseManager, File file, DatabaseManager.ProgressListener listener) throws Exception {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        try {
+            long rows;
+            try (OutputStream out = openOutput(temp.toFile(), file.getName().endsWith(".gz"))) {
+                rows = databaseManager.exportAddresses(out, listener);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return rows;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static OutputStream openOutput(File file, boolean compress) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        return compress ? new GZIPOutputStream(out, 1 << 16) : out;
+    }
+
+    private static InputStream openInput(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        return file.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    private static long getRate(long rows, long elapsedMillis) {
+        return elapsedMillis == 0 ? rows : rows * 1000 / elapsedMillis;
+    }
+
+    private void handleFlightRecorder(String[] args, Consumer<String> reply) {
+        if (!PingTracer.isAvailable()) {
+            reply.accept("Java Flight Recorder is not available on this Java runtime.");
+            return;
+        }
+
+        try {
+            switch (args[1].toLowerCase()) {
+                case "start": {
+                    long minutes = args.length >= 3 ? Long.parseLong(args[2]) : 10;
+                    PingTracer.startRecording(Duration.ofMinutes(minutes));
+                    reply.accept("Started recording pings, keeping the last " + minutes + " minutes.");
+                    break;
+                }
+                case "dump": {
+                    File recordings = new File(AdvancedServerListIcons.inst().getDataFolder(), "recordings");
+                    recordings.mkdirs();
+                    String name = args.length >= 3 ? new File(args[2]).getName()
+                            : "pings-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+                    File file = new File(recordings, name.endsWith(".jfr") ? name : name + ".jfr");
+                    if (PingTracer.dumpRecording(file.toPath())) {
+                        reply.accept("Dumped recording to " + file.getPath());
+                    } else {
+                        reply.accept("No recording is running, start one with /asli jfr start");
+                    }
+                    break;
+                }
+                case "stop":
+                    reply.accept(PingTracer.stopRecording() ? "Stopped recording pings." : "No recording is running.");
+                    break;
+                default:
+                    reply.accept("Usage: " + USAGE);
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            reply.accept("Usage: " + USAGE);
+        } catch (Exception e) {
+            reply.accept("Flight recorder command failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
@@ -22,40 +22,37 @@
 package com.me4502.advancedserverlisticons;
 
 import java.io.File;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 public interface AdvancedServerListIcons {
 
-    AdvancedServerListIcons instance = null;
+    // Held in a reference, as newer Java versions no longer allow rewriting a final field.
+    AtomicReference<AdvancedServerListIcons> instance = new AtomicReference<>();
 
     static AdvancedServerListIcons inst() {
-        return instance;
+        return instance.get();
     }
 
     static void setInstance(AdvancedServerListIcons instance) {
-        try {
-            Field field = AdvancedServerListIcons.class.getField("instance");
-            field.setAccessible(true);
-
-            Field modifiersField = Field.class.getDeclaredField("modifiers");
-            modifiersField.setAccessible(true);
-            modifiersField.setInt(field, field.getModifiers() & ~Modifier.FINAL);
-
-            field.set(null, instance);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
-        }
+        AdvancedServerListIcons.instance.set(instance);
     }
 
     /**
      * Gets the {@link DatabaseManager} for this plugin.
      *
-     * @return The Database Manager.
+     * @return The Database Manager, or null on a server in proxy mode.
      */
     DatabaseManager getDatabaseManager();
 
+    /**
+     * Gets the {@link ImageHandler} for this plugin.
+     *
+     * @return The Image Handler, or null on a server in proxy mode.
+     */
     ImageHandler getImageHandler();
 
     File getDataFolder();
+
+    Logger getLogger();
 }
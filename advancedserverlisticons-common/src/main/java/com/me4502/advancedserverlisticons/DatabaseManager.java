@@ -21,38 +21,133 @@
  */
 package com.me4502.advancedserverlisticons;
 
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
 import com.zaxxer.hikari.HikariDataSource;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class DatabaseManager {
 
     private final String jdbcUrl;
+    private final String replicaJdbcUrl;
     private final String username;
     private final String password;
+    private final PoolSettings poolSettings;
 
-    private HikariDataSource dataSource;
+    private volatile HikariDataSource dataSource;
+    private volatile HikariDataSource replicaDataSource;
+
+    private volatile boolean replicaHealthy;
+    private boolean replicaChecked;
+    private ScheduledExecutorService replicaChecker;
+
+    private static final int MAX_PENDING_ADDRESSES = 10000;
+    private static final int BULK_CHUNK_SIZE = 1000;
+
+    /**
+     * Joins seen before the database is ready, written once it is.
+     */
+    private final Map<UUID, String> pendingAddresses = new LinkedHashMap<>();
+
+    private volatile boolean ready;
+    private volatile boolean closed;
 
     public DatabaseManager(String jdbcUrl, String username, String password) {
+        this(jdbcUrl, null, username, password, new PoolSettings());
+    }
+
+    /**
+     * Creates a database manager that sends reads to a replica, falling back
+     * to the primary when the replica lags behind or can't be reached.
+     *
+     * @param jdbcUrl The primary database, used for writes
+     * @param replicaJdbcUrl The replica database used for reads, or null to read from the primary
+     * @param username The username for both databases
+     * @param password The password for both databases
+     * @param poolSettings The connection pool settings
+     */
+    public DatabaseManager(String jdbcUrl, String replicaJdbcUrl, String username, String password, PoolSettings poolSettings) {
         this.jdbcUrl = jdbcUrl;
+        this.replicaJdbcUrl = replicaJdbcUrl == null || replicaJdbcUrl.isEmpty() ? null : replicaJdbcUrl;
         this.username = username;
         this.password = password;
+        this.poolSettings = poolSettings;
     }
 
+    /**
+     * Connects to the database and creates the tables, blocking until done.
+     */
     public void connect() {
-        dataSource = new HikariDataSource();
-        dataSource.setJdbcUrl(this.jdbcUrl);
-        dataSource.setUsername(this.username);
-        dataSource.setPassword(this.password);
+        try {
+            openConnections();
+            createTables();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        markReady();
+    }
+
+    /**
+     * Opens the connection pools, and waits for a first connection to the primary.
+     *
+     * @throws SQLException If the primary can't be reached
+     */
+    public void openConnections() throws SQLException {
+        HikariDataSource primary = createDataSource(this.jdbcUrl, "ASLI Primary");
+        try {
+            primary.getConnection().close();
+        } catch (SQLException | RuntimeException e) {
+            // Don't leave a broken pool behind, so a retry starts from scratch.
+            closeQuietly(primary);
+            throw e;
+        }
+        dataSource = primary;
+
+        if (this.replicaJdbcUrl != null) {
+            replicaDataSource = createDataSource(this.replicaJdbcUrl, "ASLI Replica");
+            replicaDataSource.setReadOnly(true);
+            replicaDataSource.setInitializationFailFast(false);
+            // Lookups wait on this when the replica dies between checks, so keep falling back cheap.
+            replicaDataSource.setConnectionTimeout(poolSettings.replicaConnectionTimeout);
+
+            replicaChecker = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("ASLI Replica Check").setDaemon(true).build());
+            replicaChecker.scheduleWithFixedDelay(this::checkReplica, 0, poolSettings.replicaCheckInterval, TimeUnit.MILLISECONDS);
+        }
 
+        if (closed) {
+            // Disconnected while connecting, so don't leave the pools open.
+            disconnect();
+        }
+    }
+
+    public void createTables() {
         if (!doesTableExist("player_addresses")) {
-            try (Connection connection = getConnection()) {
-                PreparedStatement statement = connection.prepareStatement("CREATE TABLE player_addresses (`uuid` CHAR(36) PRIMARY KEY, `address` VARCHAR(20));");
+            try (Connection connection = getConnection();
+                    PreparedStatement statement = connection.prepareStatement(
+                            "CREATE TABLE player_addresses (`uuid` CHAR(36) PRIMARY KEY, `address` VARCHAR(20));")) {
                 statement.executeUpdate();
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -60,19 +155,107 @@ public class DatabaseManager {
         }
     }
 
+    private HikariDataSource createDataSource(String url, String poolName) {
+        HikariDataSource source = new HikariDataSource();
+        source.setPoolName(poolName);
+        source.setJdbcUrl(url);
+        source.setUsername(this.username);
+        source.setPassword(this.password);
+        source.setMaximumPoolSize(poolSettings.maximumPoolSize);
+        source.setMinimumIdle(poolSettings.minimumIdle);
+        source.setConnectionTimeout(poolSettings.connectionTimeout);
+        source.setIdleTimeout(poolSettings.idleTimeout);
+        source.setMaxLifetime(poolSettings.maxLifetime);
+
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+            // Cache prepared statements on the server, rather than re-parsing every query.
+            source.addDataSourceProperty("useServerPrepStmts", "true");
+            source.addDataSourceProperty("cachePrepStmts", "true");
+            source.addDataSourceProperty("prepStmtCacheSize", "250");
+            source.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            // Send batched imports as multi-row inserts.
+            source.addDataSourceProperty("rewriteBatchedStatements", "true");
+        }
+        return source;
+    }
+
+    /**
+     * Marks the database as ready for use, and writes any joins seen while it wasn't.
+     */
+    public void markReady() {
+        // Joins keep being queued while the queue is written, so only mark the database as
+        // ready once it's empty. Otherwise a queued address could overwrite a newer one.
+        while (true) {
+            Map<UUID, String> pending;
+            synchronized (pendingAddresses) {
+                if (pendingAddresses.isEmpty()) {
+                    ready = true;
+                    return;
+                }
+                pending = new LinkedHashMap<>(pendingAddresses);
+                pendingAddresses.clear();
+            }
+            pending.forEach(this::writePlayerAddress);
+        }
+    }
+
+    /**
+     * Gets whether the database is connected and ready for queries. Until
+     * it is, lookups find nothing and joins are queued.
+     *
+     * @return If the database is ready
+     */
+    public boolean isReady() {
+        return ready && !closed;
+    }
+
+    /**
+     * Gets whether the database has been disconnected, after which it won't
+     * be connected again.
+     *
+     * @return If the database is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
     public void disconnect() {
+        closed = true;
+        if (replicaChecker != null) {
+            replicaChecker.shutdownNow();
+        }
+        closeQuietly(replicaDataSource);
+        closeQuietly(dataSource);
+    }
+
+    private static void closeQuietly(HikariDataSource source) {
         try {
-            if (!dataSource.isClosed()) {
-                dataSource.close();
+            if (source != null && !source.isClosed()) {
+                source.close();
             }
         } catch (Exception e) {
         }
     }
 
     public void addPlayerAddress(UUID player, String address) {
-        try (Connection connection = getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO player_addresses (`uuid`, `address`) VALUES (?, ?)"
-                    + " ON DUPLICATE KEY UPDATE `address`=VALUES(`address`);");
+        if (!ready) {
+            synchronized (pendingAddresses) {
+                if (!ready) {
+                    pendingAddresses.remove(player);
+                    if (pendingAddresses.size() < MAX_PENDING_ADDRESSES) {
+                        pendingAddresses.put(player, address);
+                    }
+                    return;
+                }
+            }
+        }
+        writePlayerAddress(player, address);
+    }
+
+    private void writePlayerAddress(UUID player, String address) {
+        try (Connection connection = getConnection();
+                PreparedStatement statement = connection.prepareStatement("INSERT INTO player_addresses (`uuid`, `address`) VALUES (?, ?)"
+                        + " ON DUPLICATE KEY UPDATE `address`=VALUES(`address`);")) {
             statement.setString(1, player.toString());
             statement.setString(2, address);
 
@@ -83,14 +266,19 @@ public class DatabaseManager {
     }
 
     public String getPlayerAddress(UUID player) {
-        try (Connection connection = getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT `address` FROM player_addresses WHERE `uuid` = ? LIMIT 1;");
-            statement.setString(1, player.toString());
+        if (!isReady()) {
+            return null;
+        }
+        try {
+            return read(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT `address` FROM player_addresses WHERE `uuid` = ? LIMIT 1;")) {
+                    statement.setString(1, player.toString());
 
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return resultSet.getString("address");
-            }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next() ? resultSet.getString("address") : null;
+                    }
+                }
+            });
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -99,25 +287,36 @@ public class DatabaseManager {
     }
 
     public UUID getPlayerUUID(String address) {
-        try (Connection connection = getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("SELECT `uuid` FROM player_addresses WHERE `address` = ? LIMIT 1;");
-            statement.setString(1, address);
+        Object event = PingTracer.begin(PingTracer.Stage.ADDRESS_LOOKUP);
+        if (!isReady()) {
+            PingTracer.end(event, null, null, "not-ready");
+            return null;
+        }
+        try {
+            UUID uuid = read(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT `uuid` FROM player_addresses WHERE `address` = ? LIMIT 1;")) {
+                    statement.setString(1, address);
 
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                return UUID.fromString(resultSet.getString("uuid"));
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        return resultSet.next() ? UUID.fromString(resultSet.getString("uuid")) : null;
+                    }
+                }
+            });
+            if (uuid != null) {
+                PingTracer.end(event, uuid, null, "hit");
+                return uuid;
             }
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
+        PingTracer.end(event, null, null, "miss");
         return null;
     }
 
     public void clearAll() {
-        try (Connection connection = getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("DELETE FROM player_addresses;");
-
+        try (Connection connection = getConnection();
+                PreparedStatement statement = connection.prepareStatement("DELETE FROM player_addresses;")) {
             statement.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
@@ -125,8 +324,8 @@ public class DatabaseManager {
     }
 
     public void clearAll(UUID player) {
-        try (Connection connection = getConnection()) {
-            PreparedStatement statement = connection.prepareStatement("DELETE FROM player_addresses WHERE `uuid` = ?;");
+        try (Connection connection = getConnection();
+                PreparedStatement statement = connection.prepareStatement("DELETE FROM player_addresses WHERE `uuid` = ?;")) {
             statement.setString(1, player.toString());
 
             statement.executeUpdate();
@@ -135,16 +334,149 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Streams every stored address out as newline delimited JSON, one
+     * {@code {"uuid":..,"address":..}} object per line. Rows are read with a
+     * forward-only cursor, so memory use doesn't grow with the table.
+     *
+     * @param out The stream to write to, which is left open
+     * @param listener Called after each chunk of rows
+     * @return The number of rows exported
+     * @throws SQLException If the rows couldn't be read
+     * @throws IOException If the rows couldn't be written
+     */
+    public long exportAddresses(OutputStream out, ProgressListener listener) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+
+        try (Connection connection = getConnection()) {
+            // Some drivers, such as PostgreSQL, only use a cursor outside auto-commit.
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("SELECT `uuid`, `address` FROM player_addresses;",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                // MySQL only streams rows with this special fetch size.
+                statement.setFetchSize(isMySql(connection) ? Integer.MIN_VALUE : BULK_CHUNK_SIZE);
+
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+                JsonWriter json = new JsonWriter(writer);
+                json.setLenient(true);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        json.beginObject()
+                                .name("uuid").value(resultSet.getString(1))
+                                .name("address").value(resultSet.getString(2))
+                                .endObject();
+                        writer.write('\n');
+
+                        if (++rows % BULK_CHUNK_SIZE == 0) {
+                            listener.onProgress(rows, System.currentTimeMillis() - start);
+                        }
+                    }
+                }
+                writer.flush();
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+
+        listener.onProgress(rows, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    /**
+     * Streams addresses in from newline delimited JSON, as written by
+     * {@link #exportAddresses(OutputStream, ProgressListener)}. Rows are
+     * inserted in batches, each committed on its own, and existing players
+     * have their address replaced.
+     *
+     * @param in The stream to read from, which is left open
+     * @param listener Called after each committed batch
+     * @return The number of rows imported
+     * @throws SQLException If the rows couldn't be written
+     * @throws IOException If the rows couldn't be read
+     */
+    public long importAddresses(InputStream in, ProgressListener listener) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        Gson gson = new Gson();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO player_addresses (`uuid`, `address`) VALUES (?, ?)"
+                    + " ON DUPLICATE KEY UPDATE `address`=VALUES(`address`);")) {
+                int batched = 0;
+                long lineNumber = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    AddressRow row;
+                    UUID uuid;
+                    try {
+                        row = gson.fromJson(line, AddressRow.class);
+                        uuid = row == null || row.uuid == null ? null : UUID.fromString(row.uuid);
+                    } catch (JsonParseException | IllegalArgumentException e) {
+                        throw new IOException("Invalid row on line " + lineNumber + ": " + e.getMessage(), e);
+                    }
+                    if (uuid == null || row.address == null) {
+                        throw new IOException("Invalid row on line " + lineNumber + ", it needs a uuid and an address: " + line);
+                    }
+                    statement.setString(1, uuid.toString());
+                    statement.setString(2, row.address);
+                    statement.addBatch();
+
+                    if (++batched == BULK_CHUNK_SIZE) {
+                        executeImportBatch(statement, lineNumber);
+                        connection.commit();
+                        rows += batched;
+                        batched = 0;
+                        listener.onProgress(rows, System.currentTimeMillis() - start);
+                    }
+                }
+                if (batched > 0) {
+                    executeImportBatch(statement, lineNumber);
+                    connection.commit();
+                    rows += batched;
+                }
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        listener.onProgress(rows, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    private static void executeImportBatch(PreparedStatement statement, long lastLine) throws SQLException {
+        try {
+            statement.executeBatch();
+        } catch (SQLException e) {
+            throw new SQLException("Failed to write the batch ending on line " + lastLine + ": " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    private static boolean isMySql(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName().toLowerCase();
+        return product.contains("mysql") || product.contains("mariadb");
+    }
+
     private boolean doesTableExist(String name) {
         boolean ret = false;
 
         try (Connection connection = getConnection()) {
             DatabaseMetaData dbm = connection.getMetaData();
-            ResultSet set = dbm.getTables(null, null, name, null);
-            if (set.next()) {
-                ret = true;
+            try (ResultSet set = dbm.getTables(null, null, name, null)) {
+                if (set.next()) {
+                    ret = true;
+                }
             }
-            set.close();
         } catch (SQLException ex) {
             ret = false;
         }
@@ -152,12 +484,204 @@ public class DatabaseManager {
         return ret;
     }
 
-    private Connection getConnection() {
+    /**
+     * Runs a read query on the replica if it is healthy, otherwise on the primary.
+     *
+     * @param query The query
+     * @param <T> The result type
+     * @return The query result
+     * @throws SQLException If the query failed on the primary
+     */
+    private <T> T read(SqlQuery<T> query) throws SQLException {
+        if (replicaDataSource != null && replicaHealthy) {
+            try (Connection connection = replicaDataSource.getConnection()) {
+                return query.run(connection);
+            } catch (SQLException e) {
+                // Stay on the primary until the next replica check passes.
+                setReplicaHealthy(false, e.getMessage());
+            }
+        }
+
+        try (Connection connection = getConnection()) {
+            return query.run(connection);
+        }
+    }
+
+    private void checkReplica() {
+        try (Connection connection = replicaDataSource.getConnection()) {
+            long lag = getReplicationLag(connection);
+            if (lag <= poolSettings.replicaMaxLag) {
+                setReplicaHealthy(true, null);
+            } else {
+                setReplicaHealthy(false, "it is " + lag + " seconds behind the primary");
+            }
+        } catch (SQLException | RuntimeException e) {
+            setReplicaHealthy(false, e.getMessage());
+        }
+    }
+
+    /**
+     * Updates whether reads go to the replica, logging when that changes.
+     *
+     * @param healthy If the replica is healthy
+     * @param reason Why the replica is unhealthy, if it isn't
+     */
+    private synchronized void setReplicaHealthy(boolean healthy, String reason) {
+        if (closed || replicaChecked && replicaHealthy == healthy) {
+            return;
+        }
+        replicaChecked = true;
+        replicaHealthy = healthy;
+        if (healthy) {
+            AdvancedServerListIcons.inst().getLogger().info("The read replica is healthy, address lookups now use it.");
+        } else {
+            AdvancedServerListIcons.inst().getLogger().warning("The read replica is unavailable, address lookups use the primary until it recovers: " + reason);
+        }
+    }
+
+    /**
+     * Gets how far behind the primary the replica is.
+     *
+     * @param connection A replica connection
+     * @return The lag in seconds, or 0 if the database can't report it
+     * @throws SQLException If the replica can't be queried, or replication has stopped
+     */
+    private long getReplicationLag(Connection connection) throws SQLException {
+        if (!isMySql(connection)) {
+            if (!connection.isValid((int) TimeUnit.MILLISECONDS.toSeconds(poolSettings.replicaConnectionTimeout) + 1)) {
+                throw new SQLException("Replica connection is not valid");
+            }
+            return 0;
+        }
+
         try {
-            return dataSource.getConnection();
+            return getReplicationLag(connection, "SHOW REPLICA STATUS;");
         } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
+            // MariaDB before 10.5 and MySQL before 8.0.22 only know the old statement.
+            return getReplicationLag(connection, "SHOW SLAVE STATUS;");
+        }
+    }
+
+    private static long getReplicationLag(Connection connection, String query) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(query);
+                ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                // Not a replica, so it can't lag.
+                return 0;
+            }
+            // MySQL 8.0.22 renamed the column, MariaDB kept the old name.
+            String column = "Seconds_Behind_Master";
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnLabel(i).equalsIgnoreCase("Seconds_Behind_Source")) {
+                    column = "Seconds_Behind_Source";
+                    break;
+                }
+            }
+            long lag = resultSet.getLong(column);
+            if (resultSet.wasNull()) {
+                throw new SQLException("Replication is not running");
+            }
+            return lag;
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (dataSource == null) {
+            throw new SQLException("The database is not connected");
+        }
+        return dataSource.getConnection();
+    }
+
+    private interface SqlQuery<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    public interface ProgressListener {
+        /**
+         * Reports progress of a bulk export or import.
+         *
+         * @param rows The rows done so far
+         * @param elapsedMillis The time taken so far
+         */
+        void onProgress(long rows, long elapsedMillis);
+    }
+
+    private static class AddressRow {
+        String uuid;
+        String address;
+    }
+
+    /**
+     * Connection pool and replica settings.
+     */
+    public static class PoolSettings {
+        private int maximumPoolSize = 10;
+        private int minimumIdle = 2;
+        private long connectionTimeout = TimeUnit.SECONDS.toMillis(5);
+        private long idleTimeout = TimeUnit.MINUTES.toMillis(10);
+        private long maxLifetime = TimeUnit.MINUTES.toMillis(30);
+        private long replicaMaxLag = 10;
+        private long replicaCheckInterval = TimeUnit.SECONDS.toMillis(5);
+        private long replicaConnectionTimeout = 500;
+
+        public PoolSettings setMaximumPoolSize(int maximumPoolSize) {
+            this.maximumPoolSize = maximumPoolSize;
+            return this;
+        }
+
+        public PoolSettings setMinimumIdle(int minimumIdle) {
+            this.minimumIdle = minimumIdle;
+            return this;
+        }
+
+        public PoolSettings setConnectionTimeout(long connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public PoolSettings setIdleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public PoolSettings setMaxLifetime(long maxLifetime) {
+            this.maxLifetime = maxLifetime;
+            return this;
+        }
+
+        /**
+         * Sets how far the replica may fall behind, in seconds, before reads go to the primary.
+         *
+         * @param replicaMaxLag The maximum lag in seconds
+         * @return These settings
+         */
+        public PoolSettings setReplicaMaxLag(long replicaMaxLag) {
+            this.replicaMaxLag = replicaMaxLag;
+            return this;
+        }
+
+        /**
+         * Sets how often the replica's health and lag are checked.
+         *
+         * @param replicaCheckInterval The interval in milliseconds
+         * @return These settings
+         */
+        public PoolSettings setReplicaCheckInterval(long replicaCheckInterval) {
+            this.replicaCheckInterval = replicaCheckInterval;
+            return this;
+        }
+
+        /**
+         * Sets how long a lookup waits for a replica connection before falling
+         * back to the primary. HikariCP doesn't allow less than 250ms.
+         *
+         * @param replicaConnectionTimeout The timeout in milliseconds
+         * @return These settings
+         */
+        public PoolSettings setReplicaConnectionTimeout(long replicaConnectionTimeout) {
+            this.replicaConnectionTimeout = replicaConnectionTimeout;
+            return this;
         }
     }
 }
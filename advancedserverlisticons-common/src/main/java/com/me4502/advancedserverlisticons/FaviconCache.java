@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FaviconCache.
+ *
+ * Interns platform favicons by icon key, so players with identical icons
+ * share one encoded favicon.
+ *
+ * @param <T> The platform favicon type
+ */
+public class FaviconCache<T> {
+
+    private final ImageHandler imageHandler;
+    private final FaviconFactory<T> faviconFactory;
+
+    private final Cache<ImageHandler.IconKey, T> favicons = CacheBuilder.newBuilder().maximumSize(100).expireAfterAccess(5, TimeUnit.MINUTES).build();
+
+    public FaviconCache(ImageHandler imageHandler, FaviconFactory<T> faviconFactory) {
+        this.imageHandler = imageHandler;
+        this.faviconFactory = faviconFactory;
+    }
+
+    /**
+     * Gets the favicon for a player.
+     *
+     * @param uuid The player
+     * @param name The player name
+     * @return The favicon, or null if the head isn't downloaded yet
+     * @throws Exception If the icon couldn't be rendered or encoded
+     */
+    public T getFavicon(UUID uuid, String name) throws Exception {
+        ImageHandler.RenderedIcon icon = imageHandler.getIconForUser(uuid, name);
+        if (icon == null) {
+            return null;
+        }
+
+        Object event = PingTracer.begin(PingTracer.Stage.FAVICON_CREATE);
+        boolean[] created = new boolean[1];
+        try {
+            T favicon = favicons.get(icon.getKey(), () -> {
+                created[0] = true;
+                return faviconFactory.create(icon.getImage());
+            });
+            PingTracer.end(event, uuid, icon.getKey().getDefinition(), created[0] ? "created" : "hit");
+            return favicon;
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    public interface FaviconFactory<T> {
+        T create(BufferedImage image) throws Exception;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * HeadDiskCache.
+ *
+ * Keeps the heads directory within a byte and file count budget, evicting
+ * the least recently used heads. Access times are tracked in memory, as
+ * file access times are often disabled or coarse. The access map is the
+ * same one the refresh scheduler marks players as seen in.
+ */
+public class HeadDiskCache {
+
+    private static final long INITIAL_DELAY = TimeUnit.MINUTES.toMillis(1);
+    private static final long CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final File headDirectory;
+    private final Consumer<UUID> evictionListener;
+
+    private final Map<UUID, Long> lastAccess;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ASLI Head Disk Cache").setDaemon(true).build());
+
+    private volatile long maxBytes = 256L * 1024 * 1024;
+    private volatile int maxFiles = 100000;
+
+    /**
+     * Creates a disk cache for the given heads directory.
+     *
+     * @param headDirectory The heads directory
+     * @param lastAccess When each player was last seen, shared with the refresh scheduler
+     * @param evictionListener Told about each head that is evicted
+     */
+    public HeadDiskCache(File headDirectory, Map<UUID, Long> lastAccess, Consumer<UUID> evictionListener) {
+        this.headDirectory = headDirectory;
+        this.lastAccess = lastAccess;
+        this.evictionListener = evictionListener;
+        executor.scheduleWithFixedDelay(this::evict, INITIAL_DELAY, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the disk budget for the heads directory.
+     *
+     * @param maxBytes The maximum total size of heads, in bytes
+     * @param maxFiles The maximum number of heads
+     */
+    public void setLimits(long maxBytes, int maxFiles) {
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    private void evict() {
+        try {
+            File[] files = headDirectory.listFiles((dir, name) -> name.endsWith(".png"));
+            if (files == null) {
+                return;
+            }
+
+            List<HeadFile> heads = new ArrayList<>(files.length);
+            Set<UUID> stored = new HashSet<>(files.length);
+            long totalBytes = 0;
+            for (File file : files) {
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - 4));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                // Heads not used since startup fall back to when they were downloaded.
+                Long accessed = lastAccess.get(uuid);
+                HeadFile head = new HeadFile(uuid, file, file.length(), accessed == null ? file.lastModified() : accessed);
+                heads.add(head);
+                stored.add(uuid);
+                totalBytes += head.size;
+            }
+            // Players pinged without a head on disk would otherwise be tracked forever.
+            lastAccess.keySet().retainAll(stored);
+
+            if (totalBytes <= maxBytes && heads.size() <= maxFiles) {
+                return;
+            }
+
+            heads.sort(Comparator.comparingLong(head -> head.lastAccess));
+            int remainingFiles = heads.size();
+            int evicted = 0;
+            long reclaimed = 0;
+            for (HeadFile head : heads) {
+                if (totalBytes <= maxBytes && remainingFiles <= maxFiles) {
+                    break;
+                }
+                if (head.file.delete()) {
+                    lastAccess.remove(head.uuid);
+                    evictionListener.accept(head.uuid);
+                    totalBytes -= head.size;
+                    reclaimed += head.size;
+                    evicted++;
+                    remainingFiles--;
+                }
+            }
+
+            AdvancedServerListIcons.inst().getLogger().info("Evicted " + evicted + " least recently used heads, reclaiming "
+                    + (reclaimed / 1024) + " KB. " + remainingFiles + " heads remain, using " + (totalBytes / 1024) + " KB.");
+        } catch (Exception e) {
+            AdvancedServerListIcons.inst().getLogger().log(Level.WARNING, "Failed to evict heads", e);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class HeadFile {
+        private final UUID uuid;
+        private final File file;
+        private final long size;
+        private final long lastAccess;
+
+        HeadFile(UUID uuid, File file, long size, long lastAccess) {
+            this.uuid = uuid;
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
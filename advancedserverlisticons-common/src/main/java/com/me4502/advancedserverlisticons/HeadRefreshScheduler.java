@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HeadRefreshScheduler.
+ *
+ * Refreshes the heads of recently seen players before they expire, spreading
+ * the downloads randomly over the refresh window so players who joined
+ * together don't all refresh together. Expiry times are kept in memory, so
+ * scans don't touch the heads directory.
+ */
+public class HeadRefreshScheduler {
+
+    private static final long SCAN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final ImageHandler imageHandler;
+
+    private final Map<UUID, Long> lastSeen;
+    private final Map<UUID, Long> expiries = new ConcurrentHashMap<>();
+    private final Set<UUID> scheduledRefreshes = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ASLI Head Refresh Scheduler").setDaemon(true).build());
+
+    private volatile long refreshAhead = TimeUnit.HOURS.toMillis(2);
+    private volatile long inactivePeriod = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Creates a refresh scheduler.
+     *
+     * @param imageHandler The image handler that refreshes heads
+     * @param lastSeen When each player was last seen, shared with the disk cache
+     */
+    public HeadRefreshScheduler(ImageHandler imageHandler, Map<UUID, Long> lastSeen) {
+        this.imageHandler = imageHandler;
+        this.lastSeen = lastSeen;
+        scheduler.scheduleWithFixedDelay(this::scan, SCAN_INTERVAL, SCAN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets how long before expiry heads are refreshed, and how long a player
+     * can go unseen before their head stops being refreshed.
+     *
+     * @param refreshAhead The refresh window, in milliseconds
+     * @param inactivePeriod The inactivity period, in milliseconds
+     */
+    public void setPeriods(long refreshAhead, long inactivePeriod) {
+        this.refreshAhead = Math.min(refreshAhead, ImageHandler.HEAD_EXPIRY);
+        this.inactivePeriod = inactivePeriod;
+    }
+
+    /**
+     * Marks a player as seen, from either a ping or a join.
+     *
+     * @param uuid The player
+     */
+    public void markSeen(UUID uuid) {
+        lastSeen.put(uuid, System.currentTimeMillis());
+    }
+
+    /**
+     * Records when a head read from disk expires, unless it is already known.
+     *
+     * @param uuid The player
+     * @param file The head file
+     */
+    public void recordHead(UUID uuid, File file) {
+        expiries.computeIfAbsent(uuid, id -> file.lastModified() + ImageHandler.HEAD_EXPIRY);
+    }
+
+    /**
+     * Records that a fresh head was just written.
+     *
+     * @param uuid The player
+     */
+    public void recordHeadWritten(UUID uuid) {
+        expiries.put(uuid, System.currentTimeMillis() + ImageHandler.HEAD_EXPIRY);
+    }
+
+    /**
+     * Forgets a head that was removed from disk, so it isn't refreshed again.
+     *
+     * @param uuid The player
+     */
+    public void forgetHead(UUID uuid) {
+        expiries.remove(uuid);
+    }
+
+    private void scan() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<UUID, Long>> iterator = lastSeen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Long> entry = iterator.next();
+            UUID uuid = entry.getKey();
+            if (now - entry.getValue() > inactivePeriod) {
+                iterator.remove();
+                expiries.remove(uuid);
+                continue;
+            }
+
+            Long expiresAt = expiries.get(uuid);
+            if (expiresAt == null || scheduledRefreshes.contains(uuid)) {
+                continue;
+            }
+
+            if (expiresAt - now > refreshAhead) {
+                continue;
+            }
+
+            // Heads already past expiry are still spread over a scan interval.
+            long window = Math.max(expiresAt - now, SCAN_INTERVAL);
+            long delay = ThreadLocalRandom.current().nextLong(window);
+            scheduledRefreshes.add(uuid);
+            scheduler.schedule(() -> {
+                scheduledRefreshes.remove(uuid);
+                imageHandler.refreshHead(uuid);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
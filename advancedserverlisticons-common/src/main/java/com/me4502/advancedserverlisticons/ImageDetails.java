@@ -30,18 +30,24 @@ import java.util.UUID;
  * Base system for each image declaration type.
  */
 public abstract class ImageDetails implements Comparable<ImageDetails> {
+    private final String name;
     private final int priority;
     private final ImageType type;
     private final String permission;
     private final List<String> images;
 
-    public ImageDetails(int priority, ImageType type, String permission, List<String> images) {
+    public ImageDetails(String name, int priority, ImageType type, String permission, List<String> images) {
+        this.name = name;
         this.priority = priority;
         this.type = type;
         this.permission = permission;
         this.images = images;
     }
 
+    public String getName() {
+        return this.name;
+    }
+
     public List<String> getImages() {
         return this.images;
     }
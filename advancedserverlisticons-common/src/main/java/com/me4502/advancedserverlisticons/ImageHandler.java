@@ -22,10 +22,14 @@
 package com.me4502.advancedserverlisticons;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.io.Resources;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
@@ -35,113 +39,437 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Base64;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import javax.imageio.ImageIO;
 
 public class ImageHandler {
 
+    private static final String SESSION_SERVER = "https://sessionserver.mojang.com/session/minecraft/profile/";
+
+    private static final String STEVE_SKIN = "http://textures.minecraft.net/texture/1a4af718455d4aab528e7a61f86fa25e6a369d1768dcb13f7df319a713eb810b";
+    private static final String ALEX_SKIN = "http://textures.minecraft.net/texture/3b60a1f6d562f52aaebbf1434f1de147933a3affe0e764fa49ea057536623cd3";
+
+    static final long HEAD_EXPIRY = TimeUnit.DAYS.toMillis(1);
+
+    private static final int CONNECT_TIMEOUT = 2000;
+    private static final int READ_TIMEOUT = 3000;
+
+    private static final long MIN_LOOKUP_BACKOFF = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_LOOKUP_BACKOFF = TimeUnit.HOURS.toMillis(1);
+
     private final Set<ImageDetails> imageDetails = new TreeSet<>();
 
-    private final LoadingCache<ImageProfile, BufferedImage> iconCache = CacheBuilder.newBuilder().maximumSize(100).expireAfterAccess(5, TimeUnit.MINUTES).build(new CacheLoader<ImageProfile, BufferedImage>() {
-        @Override
-        public BufferedImage load(ImageProfile imageProfile) throws Exception {
-            ImageDetails imageDetail = getImageDetails(imageProfile.uuid);
-            BufferedImage headImage = getUserHeadImage(imageProfile.uuid, imageProfile.name);
-            if (imageDetail != null) {
-                File imagesDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "images");
-                imagesDirectory.mkdirs();
-
-                switch (imageDetail.getType()) {
-                    case UNDERLAY: {
-                        BufferedImage overlayImage = ImageIO.read(new File(imagesDirectory, imageDetail.getImages().get(0)));
-                        BufferedImage buffer = new BufferedImage(overlayImage.getWidth(null), overlayImage.getHeight(null), 2);
-
-                        Graphics2D g = buffer.createGraphics();
-                        g.drawImage(overlayImage, null, null);
-                        g.drawImage(headImage, 16, 16, null);
-
-                        return buffer;
-                    }
-                    case OVERLAY: {
-                        BufferedImage overlayImage = ImageIO.read(new File(imagesDirectory, imageDetail.getImages().get(0)));
-                        BufferedImage buffer = new BufferedImage(overlayImage.getWidth(null), overlayImage.getHeight(null), 2);
-
-                        Graphics2D g = buffer.createGraphics();
-                        g.drawImage(headImage, 16, 16, null);
-                        g.drawImage(overlayImage, null, null);
-
-                        return buffer;
-                    }
-                }
-            }
+    private final CircuitBreaker sessionBreaker = new CircuitBreaker(5, TimeUnit.SECONDS.toMillis(30));
 
-            return headImage;
-        }
-    });
+    private final Cache<UUID, FailedLookup> failedLookups = CacheBuilder.newBuilder().maximumSize(10000)
+            .expireAfterWrite(MAX_LOOKUP_BACKOFF * 2, TimeUnit.MILLISECONDS).build();
+
+    private final Map<String, BufferedImage> definitionImages = new ConcurrentHashMap<>();
+
+    private final Set<UUID> refreshingHeads = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("ASLI Head Refresh #%d").setDaemon(true).build());
+
+    /**
+     * When each player was last seen, shared by the refresh scheduler and the disk cache.
+     */
+    private final Map<UUID, Long> lastSeen = new ConcurrentHashMap<>();
+
+    private final HeadRefreshScheduler refreshScheduler = new HeadRefreshScheduler(this, lastSeen);
+
+    private final HeadDiskCache diskCache;
+
+    /**
+     * The icon each player currently maps to. Kept briefly, so permission changes are picked up.
+     */
+    private final Cache<UUID, IconKey> profileKeys = CacheBuilder.newBuilder().maximumSize(10000).expireAfterWrite(5, TimeUnit.MINUTES).build();
+
+    /**
+     * Rendered icons, shared by every player with the same head and definition.
+     */
+    private final Cache<IconKey, BufferedImage> iconCache = CacheBuilder.newBuilder().maximumSize(100).expireAfterAccess(5, TimeUnit.MINUTES).build();
+
+    private final String sessionServer;
 
     public ImageHandler() {
+        this(SESSION_SERVER);
+    }
+
+    /**
+     * Creates an image handler that looks up skins on the given session server.
+     *
+     * @param sessionServer The profile lookup URL, which the undashed UUID is appended to
+     */
+    public ImageHandler(String sessionServer) {
+        this.sessionServer = sessionServer;
         File imagesDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "images");
         File playerHeadDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "heads");
         imagesDirectory.mkdirs();
         playerHeadDirectory.mkdirs();
+        diskCache = new HeadDiskCache(playerHeadDirectory, lastSeen, refreshScheduler::forgetHead);
     }
 
+    /**
+     * Gets the icon image for a player.
+     *
+     * @param uuid The player
+     * @param name The player name
+     * @return The icon, or null if the head isn't downloaded yet
+     * @throws IOException If the head or definition images couldn't be loaded
+     */
     public BufferedImage getImageForUser(UUID uuid, String name) throws IOException {
-        return iconCache.getUnchecked(new ImageProfile(name, uuid));
+        RenderedIcon icon = getIconForUser(uuid, name);
+        return icon == null ? null : icon.getImage();
+    }
+
+    /**
+     * Gets the icon for a player, along with the key it is shared under.
+     *
+     * @param uuid The player
+     * @param name The player name
+     * @return The icon, or null if the head isn't downloaded yet
+     * @throws IOException If the head or definition images couldn't be loaded
+     */
+    public RenderedIcon getIconForUser(UUID uuid, String name) throws IOException {
+        refreshScheduler.markSeen(uuid);
+
+        IconKey key = profileKeys.getIfPresent(uuid);
+        if (key != null) {
+            Object event = PingTracer.begin(PingTracer.Stage.COMPOSITE);
+            BufferedImage icon = iconCache.getIfPresent(key);
+            if (icon != null) {
+                PingTracer.end(event, uuid, key.definition, "hit");
+                return new RenderedIcon(key, icon);
+            }
+        }
+
+        ImageDetails imageDetail = getImageDetails(uuid);
+        String definition = imageDetail == null ? null : imageDetail.getName();
+        BufferedImage headImage = loadHead(uuid, definition);
+        if (headImage == null) {
+            return null;
+        }
+        IconKey newKey = new IconKey(hashImage(headImage), definition);
+        profileKeys.put(uuid, newKey);
+
+        Object event = PingTracer.begin(PingTracer.Stage.COMPOSITE);
+        boolean[] rendered = new boolean[1];
+        try {
+            BufferedImage icon = iconCache.get(newKey, () -> {
+                rendered[0] = true;
+                return render(imageDetail, headImage);
+            });
+            PingTracer.end(event, uuid, newKey.definition, rendered[0] ? "rendered" : "shared");
+            return new RenderedIcon(newKey, icon);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private BufferedImage getDefinitionImage(String name) throws IOException {
+        BufferedImage image = definitionImages.get(name);
+        if (image == null) {
+            File imagesDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "images");
+            imagesDirectory.mkdirs();
+            image = ImageIO.read(new File(imagesDirectory, name));
+            if (image == null) {
+                throw new IOException("Unsupported image format for " + name);
+            }
+            definitionImages.put(name, image);
+        }
+        return image;
+    }
+
+    /**
+     * Loads the images of every definition into memory ahead of the first ping.
+     */
+    public void warmUp() {
+        definitionImages.clear();
+        for (ImageDetails details : imageDetails) {
+            for (String image : details.getImages()) {
+                try {
+                    getDefinitionImage(image);
+                } catch (IOException e) {
+                    AdvancedServerListIcons.inst().getLogger().warning("Failed to load definition image " + image + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static HashCode hashImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Hasher hasher = Hashing.murmur3_128().newHasher().putInt(width).putInt(height);
+        for (int pixel : image.getRGB(0, 0, width, height, null, 0, width)) {
+            hasher.putInt(pixel);
+        }
+        return hasher.hash();
+    }
+
+    private BufferedImage render(ImageDetails imageDetail, BufferedImage headImage) throws IOException {
+        if (imageDetail != null) {
+            switch (imageDetail.getType()) {
+                case UNDERLAY: {
+                    BufferedImage overlayImage = getDefinitionImage(imageDetail.getImages().get(0));
+                    BufferedImage buffer = new BufferedImage(overlayImage.getWidth(null), overlayImage.getHeight(null), 2);
+
+                    Graphics2D g = buffer.createGraphics();
+                    g.drawImage(overlayImage, null, null);
+                    g.drawImage(headImage, 16, 16, null);
+
+                    return buffer;
+                }
+                case OVERLAY: {
+                    BufferedImage overlayImage = getDefinitionImage(imageDetail.getImages().get(0));
+                    BufferedImage buffer = new BufferedImage(overlayImage.getWidth(null), overlayImage.getHeight(null), 2);
+
+                    Graphics2D g = buffer.createGraphics();
+                    g.drawImage(headImage, 16, 16, null);
+                    g.drawImage(overlayImage, null, null);
+
+                    return buffer;
+                }
+            }
+        }
+
+        return headImage;
     }
 
     private final Gson gson = new GsonBuilder().create();
 
-    private Optional<URL> getTextureUrl(UUID uuid) throws IOException {
-        URL sessionUrl = new URL("https://sessionserver.mojang.com/session/minecraft/profile/" + uuid.toString().replace("-", ""));
-        SessionProfileData data = gson.fromJson(
-            String.join("\n", Resources.readLines(sessionUrl, Charsets.UTF_8)),
-            SessionProfileData.class
-        );
+    /**
+     * Gets the skin texture of a player, falling back to the default skin
+     * the game shows when the player hasn't picked one.
+     *
+     * @param uuid The player
+     * @return The skin texture URL
+     * @throws IOException If the profile couldn't be looked up
+     */
+    private URL getTextureUrl(UUID uuid) throws IOException {
+        URL sessionUrl = new URL(sessionServer + uuid.toString().replace("-", ""));
+        SessionProfileData data;
+        try (InputStream stream = openStream(sessionUrl)) {
+            if (stream == null) {
+                return getDefaultTextureUrl(uuid);
+            }
+            data = gson.fromJson(CharStreams.toString(new InputStreamReader(stream, Charsets.UTF_8)), SessionProfileData.class);
+        }
+        if (data == null || data.properties == null) {
+            return getDefaultTextureUrl(uuid);
+        }
         for (TextureProperty property : data.properties) {
             if (property.name.equals("textures")) {
                 String decodedTextureData = new String(Base64.getDecoder().decode(property.value));
                 TextureData textureData = gson.fromJson(decodedTextureData, TextureData.class);
-                return Optional.of(new URL(textureData.textures.get("SKIN").url));
+                TextureReference skin = textureData.textures == null ? null : textureData.textures.get("SKIN");
+                return skin == null ? getDefaultTextureUrl(uuid) : new URL(skin.url);
             }
         }
 
-        return Optional.empty();
+        return getDefaultTextureUrl(uuid);
     }
 
+    /**
+     * Gets the default skin for a player, using the same rule as the game to
+     * pick between Steve and Alex.
+     *
+     * @param uuid The player
+     * @return The default skin texture URL
+     * @throws IOException Never, as the URLs are constant
+     */
+    private static URL getDefaultTextureUrl(UUID uuid) throws IOException {
+        return new URL((uuid.hashCode() & 1) == 1 ? ALEX_SKIN : STEVE_SKIN);
+    }
+
+    /**
+     * Opens a stream with explicit timeouts, so a slow remote can't hold up the caller.
+     *
+     * @param url The URL
+     * @return The stream, or null if the remote has no content for this URL
+     * @throws IOException If the request failed
+     */
+    private InputStream openStream(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if (code == HttpURLConnection.HTTP_NO_CONTENT || code == HttpURLConnection.HTTP_NOT_FOUND) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                throw new IOException("Unexpected response " + code + " from " + url.getHost());
+            }
+        }
+        return connection.getInputStream();
+    }
+
+    /**
+     * Gets the head of a player from disk.
+     *
+     * <p>Missing heads are downloaded in the background rather than on the
+     * calling thread, so a ping never waits on the skin servers.</p>
+     *
+     * @param uuid The player
+     * @param name The player name
+     * @return The head, or null if it isn't downloaded yet
+     * @throws IOException If the head couldn't be read
+     */
     public BufferedImage getUserHeadImage(UUID uuid, String name) throws IOException {
-        File playerHeadDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "heads");
-        playerHeadDirectory.mkdirs();
-        File file = new File(playerHeadDirectory, uuid.toString() + ".png");
-        if (!file.exists() || System.currentTimeMillis() - file.lastModified() > 1000*60*60*24) {
-            Optional<URL> textureOpt = getTextureUrl(uuid);
-            if (textureOpt.isPresent()) {
-                URL asset = textureOpt.get();
-                BufferedImage img = toBufferedImage(ImageIO.read(asset).getSubimage(8, 8, 8, 8).getScaledInstance(32, 32, 1));
-                ImageIO.write(img, "png", file);
-                return img;
-            } else {
-                throw new FileNotFoundException();
+        return loadHead(uuid, null);
+    }
+
+    private BufferedImage loadHead(UUID uuid, String definition) throws IOException {
+        Object event = PingTracer.begin(PingTracer.Stage.HEAD_LOAD);
+        File file = getHeadFile(uuid);
+        if (file.exists()) {
+            // Expired heads keep being served, the refresh scheduler replaces them in the background.
+            BufferedImage head = ImageIO.read(file);
+            if (head != null) {
+                refreshScheduler.recordHead(uuid, file);
+                PingTracer.end(event, uuid, definition, "disk");
+                return head;
             }
-        } else {
-            return ImageIO.read(file);
         }
+
+        refreshHead(uuid);
+        PingTracer.end(event, uuid, definition, "queued");
+        return null;
+    }
+
+    /**
+     * Re-downloads the head of the given player in the background.
+     *
+     * @param uuid The player
+     */
+    public void refreshHead(UUID uuid) {
+        if (!refreshingHeads.add(uuid)) {
+            return;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                downloadHead(uuid);
+                profileKeys.invalidate(uuid);
+            } catch (IOException e) {
+                // The stale head keeps being served, and the failure is backed off.
+            } catch (RuntimeException e) {
+                AdvancedServerListIcons.inst().getLogger().log(Level.WARNING, "Failed to refresh the head of " + uuid, e);
+            } finally {
+                refreshingHeads.remove(uuid);
+            }
+        });
+    }
+
+    private BufferedImage downloadHead(UUID uuid) throws IOException {
+        FailedLookup failedLookup = failedLookups.getIfPresent(uuid);
+        if (failedLookup != null && failedLookup.retryAt > System.currentTimeMillis()) {
+            throw new FileNotFoundException("Skin lookup for " + uuid + " is backing off");
+        }
+        if (!sessionBreaker.allowRequest()) {
+            throw new FileNotFoundException("Skin servers are unavailable");
+        }
+
+        BufferedImage skin;
+        try {
+            try (InputStream stream = openStream(getTextureUrl(uuid))) {
+                skin = stream == null ? null : ImageIO.read(stream);
+            }
+            sessionBreaker.recordSuccess();
+        } catch (IOException | RuntimeException e) {
+            sessionBreaker.recordFailure();
+            recordFailedLookup(uuid, failedLookup);
+            throw e;
+        }
+
+        // The skin servers answered, so a bad texture backs off this player without tripping the breaker.
+        BufferedImage img;
+        try {
+            if (skin == null) {
+                throw new FileNotFoundException("No skin for " + uuid);
+            }
+            img = toBufferedImage(skin.getSubimage(8, 8, 8, 8).getScaledInstance(32, 32, 1));
+        } catch (IOException | RuntimeException e) {
+            recordFailedLookup(uuid, failedLookup);
+            throw e;
+        }
+
+        failedLookups.invalidate(uuid);
+        writeHead(uuid, img);
+        return img;
+    }
+
+    /**
+     * Writes a head next to its final location and moves it into place, so
+     * pings reading the old head never see a partially written file.
+     *
+     * @param uuid The player
+     * @param head The head image
+     * @throws IOException If the head couldn't be written
+     */
+    private void writeHead(UUID uuid, BufferedImage head) throws IOException {
+        Path target = getHeadFile(uuid).toPath();
+        Path temp = Files.createTempFile(target.getParent(), uuid.toString(), ".tmp");
+        try {
+            if (!ImageIO.write(head, "png", temp.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            refreshScheduler.recordHeadWritten(uuid);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void recordFailedLookup(UUID uuid, FailedLookup previous) {
+        int attempts = previous == null ? 1 : previous.attempts + 1;
+        long backoff = Math.min(MIN_LOOKUP_BACKOFF << Math.min(attempts - 1, 16), MAX_LOOKUP_BACKOFF);
+        failedLookups.put(uuid, new FailedLookup(attempts, System.currentTimeMillis() + backoff));
+    }
+
+    File getHeadFile(UUID uuid) {
+        File playerHeadDirectory = new File(AdvancedServerListIcons.inst().getDataFolder(), "heads");
+        playerHeadDirectory.mkdirs();
+        return new File(playerHeadDirectory, uuid.toString() + ".png");
     }
 
     private ImageDetails getImageDetails(UUID uuid) {
+        Object event = PingTracer.begin(PingTracer.Stage.DEFINITION_CHECK);
         for (ImageDetails details : imageDetails) {
             if (details.canUse(uuid)) {
+                PingTracer.end(event, uuid, details.getName(), "matched");
                 return details;
             }
         }
 
+        PingTracer.end(event, uuid, null, "unmatched");
         return null;
     }
 
@@ -160,13 +488,100 @@ public class ImageHandler {
         this.imageDetails.add(imageDetail);
     }
 
-    private static class ImageProfile {
-        private String name;
-        private UUID uuid;
+    public HeadRefreshScheduler getRefreshScheduler() {
+        return this.refreshScheduler;
+    }
+
+    public HeadDiskCache getDiskCache() {
+        return this.diskCache;
+    }
+
+    /**
+     * Sets the maximum number of heads that can be downloaded in the background at once.
+     *
+     * @param maxConcurrentRefreshes The concurrency cap
+     */
+    public void setMaxConcurrentRefreshes(int maxConcurrentRefreshes) {
+        int size = Math.max(1, maxConcurrentRefreshes);
+        if (size > refreshExecutor.getMaximumPoolSize()) {
+            refreshExecutor.setMaximumPoolSize(size);
+            refreshExecutor.setCorePoolSize(size);
+        } else {
+            refreshExecutor.setCorePoolSize(size);
+            refreshExecutor.setMaximumPoolSize(size);
+        }
+    }
+
+    public void shutdown() {
+        refreshScheduler.shutdown();
+        diskCache.shutdown();
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Identifies a rendered icon by the content of the head and the definition drawn with it.
+     */
+    public static final class IconKey {
+        private final HashCode headHash;
+        private final String definition;
+
+        IconKey(HashCode headHash, String definition) {
+            this.headHash = headHash;
+            this.definition = definition;
+        }
+
+        /**
+         * Gets the name of the image definition the icon was rendered with.
+         *
+         * @return The definition name, or null for a plain head
+         */
+        public String getDefinition() {
+            return this.definition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof IconKey)) {
+                return false;
+            }
+            IconKey other = (IconKey) o;
+            return headHash.equals(other.headHash) && Objects.equals(definition, other.definition);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * headHash.hashCode() + Objects.hashCode(definition);
+        }
+    }
+
+    public static final class RenderedIcon {
+        private final IconKey key;
+        private final BufferedImage image;
+
+        RenderedIcon(IconKey key, BufferedImage image) {
+            this.key = key;
+            this.image = image;
+        }
+
+        public IconKey getKey() {
+            return this.key;
+        }
+
+        public BufferedImage getImage() {
+            return this.image;
+        }
+    }
+
+    private static class FailedLookup {
+        private final int attempts;
+        private final long retryAt;
 
-        ImageProfile(String name, UUID uuid) {
-            this.name = name;
-            this.uuid = uuid;
+        FailedLookup(int attempts, long retryAt) {
+            this.attempts = attempts;
+            this.retryAt = retryAt;
         }
     }
 
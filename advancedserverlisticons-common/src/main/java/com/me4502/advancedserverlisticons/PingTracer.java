@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * PingTracer.
+ *
+ * Emits a Java Flight Recorder event for each stage of a ping. When nothing is
+ * recording, or the runtime has no JFR, {@link #begin(Stage)} returns null and
+ * {@link #end(Object, UUID, String, String)} does nothing.
+ */
+public final class PingTracer {
+
+    public enum Stage {
+        ADDRESS_LOOKUP,
+        PROFILE_RESOLVE,
+        DEFINITION_CHECK,
+        HEAD_LOAD,
+        COMPOSITE,
+        FAVICON_CREATE
+    }
+
+    private static final PingEventSink EVENTS = loadFlightRecorderEvents();
+
+    private PingTracer() {
+    }
+
+    private static PingEventSink loadFlightRecorderEvents() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            Class<?> events = Class.forName("com.me4502.advancedserverlisticons.PingEvents");
+            return (PingEventSink) events.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @param stage The stage
+     * @return The event token to pass to {@link #end(Object, UUID, String, String)}, or null if not recording
+     */
+    public static Object begin(Stage stage) {
+        return EVENTS == null ? null : EVENTS.begin(stage);
+    }
+
+    /**
+     * Finishes timing a stage, and commits its event if it is being recorded.
+     *
+     * @param token The token from {@link #begin(Stage)}
+     * @param uuid The player, if known
+     * @param definition The name of the image definition, if known
+     * @param cacheOutcome How the stage was served, such as hit or miss
+     */
+    public static void end(Object token, UUID uuid, String definition, String cacheOutcome) {
+        if (token != null) {
+            EVENTS.end(token, uuid, definition, cacheOutcome);
+        }
+    }
+
+    public static boolean isAvailable() {
+        return EVENTS != null;
+    }
+
+    /**
+     * Starts a flight recording with the ping events enabled, replacing any
+     * recording that was started before.
+     *
+     * @param maxAge How much history to keep
+     * @throws Exception If the recording couldn't be started
+     */
+    public static void startRecording(Duration maxAge) throws Exception {
+        checkAvailable();
+        EVENTS.startRecording(maxAge);
+    }
+
+    /**
+     * Writes the current recording to a file.
+     *
+     * @param file The file
+     * @return If there was a recording to dump
+     * @throws Exception If the recording couldn't be written
+     */
+    public static boolean dumpRecording(Path file) throws Exception {
+        checkAvailable();
+        return EVENTS.dumpRecording(file);
+    }
+
+    public static boolean stopRecording() {
+        checkAvailable();
+        return EVENTS.stopRecording();
+    }
+
+    private static void checkAvailable() {
+        if (EVENTS == null) {
+            throw new IllegalStateException("Java Flight Recorder is not available on this Java runtime");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * StartupTask.
+ *
+ * Connects to the database and warms up caches on a background thread, so
+ * a slow or unreachable database doesn't hold up server startup. Until it
+ * finishes, pings get the default icon and joins are queued.
+ */
+public class StartupTask implements Runnable {
+
+    private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private final DatabaseManager databaseManager;
+    private final ImageHandler imageHandler;
+    private final Logger logger;
+
+    public StartupTask(AdvancedServerListIcons plugin) {
+        this.databaseManager = plugin.getDatabaseManager();
+        this.imageHandler = plugin.getImageHandler();
+        this.logger = plugin.getLogger();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "ASLI Startup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            if (!connect()) {
+                return;
+            }
+            runPhase("Schema check", databaseManager::createTables);
+            runPhase("Queued joins", databaseManager::markReady);
+            runPhase("Cache warm-up", imageHandler::warmUp);
+            logger.info("Started up in the background in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to start up, server list icons will not be personalised", e);
+        }
+    }
+
+    /**
+     * Connects to the database, retrying with backoff until it succeeds. Joins
+     * stay queued in the meantime.
+     *
+     * @return If connected, or false if the database was closed first
+     * @throws InterruptedException If interrupted while waiting to retry
+     */
+    private boolean connect() throws InterruptedException {
+        long delay = MIN_RETRY_DELAY;
+        while (!databaseManager.isClosed()) {
+            try {
+                runPhase("Database connection", databaseManager::openConnections);
+                return !databaseManager.isClosed();
+            } catch (Exception e) {
+                if (databaseManager.isClosed()) {
+                    break;
+                }
+                logger.warning("Failed to connect to the database, retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay) + "s: " + e.getMessage());
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+            }
+        }
+        return false;
+    }
+
+    private void runPhase(String name, Phase phase) throws Exception {
+        long start = System.nanoTime();
+        phase.run();
+        logger.info(name + " took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private interface Phase {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs the read/write split against two embedded databases, one standing in
+ * for the primary and one for the replica.
+ */
+public class DatabaseManagerTest {
+
+    private static final String ADDRESS = "10.0.0.1";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String primaryUrl;
+    private String replicaUrl;
+    private Connection replica;
+    private DatabaseManager databaseManager;
+
+    @Before
+    public void setUp() throws SQLException {
+        AdvancedServerListIcons.setInstance(new TestPlatform(temporaryFolder.getRoot()));
+
+        String name = UUID.randomUUID().toString();
+        primaryUrl = "jdbc:h2:mem:primary-" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        replicaUrl = "jdbc:h2:mem:replica-" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+        // Held open so the replica outlives its pool, and can be broken by the tests.
+        replica = DriverManager.getConnection(replicaUrl, "sa", "");
+        try (Statement statement = replica.createStatement()) {
+            statement.execute("CREATE TABLE player_addresses (`uuid` CHAR(36) PRIMARY KEY, `address` VARCHAR(20));");
+        }
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (databaseManager != null) {
+            databaseManager.disconnect();
+        }
+        replica.close();
+        AdvancedServerListIcons.setInstance(null);
+    }
+
+    private DatabaseManager connect(String replicaUrl) {
+        databaseManager = new DatabaseManager(primaryUrl, replicaUrl, "sa", "",
+                new DatabaseManager.PoolSettings().setReplicaCheckInterval(50));
+        databaseManager.connect();
+        return databaseManager;
+    }
+
+    private void addToReplica(UUID player) throws SQLException {
+        try (Statement statement = replica.createStatement()) {
+            statement.execute("INSERT INTO player_addresses VALUES ('" + player + "', '" + ADDRESS + "');");
+        }
+    }
+
+    private static UUID awaitLookup(DatabaseManager databaseManager, UUID expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        UUID found = databaseManager.getPlayerUUID(ADDRESS);
+        while (!expected.equals(found) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            found = databaseManager.getPlayerUUID(ADDRESS);
+        }
+        return found;
+    }
+
+    @Test
+    public void testReadsFromPrimaryWithoutReplica() {
+        DatabaseManager databaseManager = connect(null);
+        UUID player = UUID.randomUUID();
+        databaseManager.addPlayerAddress(player, ADDRESS);
+
+        assertEquals(player, databaseManager.getPlayerUUID(ADDRESS));
+        assertEquals(ADDRESS, databaseManager.getPlayerAddress(player));
+    }
+
+    @Test
+    public void testQueuedJoinsAreWrittenOnceReady() {
+        databaseManager = new DatabaseManager(primaryUrl, "sa", "");
+        UUID player = UUID.randomUUID();
+        databaseManager.addPlayerAddress(player, "10.0.0.2");
+        databaseManager.addPlayerAddress(player, ADDRESS);
+        assertNull(databaseManager.getPlayerUUID(ADDRESS));
+
+        databaseManager.connect();
+
+        assertTrue(databaseManager.isReady());
+        assertEquals(ADDRESS, databaseManager.getPlayerAddress(player));
+    }
+
+    @Test
+    public void testReadsFromHealthyReplica() throws Exception {
+        UUID replicaPlayer = UUID.randomUUID();
+        addToReplica(replicaPlayer);
+
+        DatabaseManager databaseManager = connect(replicaUrl);
+        databaseManager.addPlayerAddress(UUID.randomUUID(), ADDRESS);
+
+        // The two databases disagree on purpose, so the answer shows which one was read.
+        assertEquals(replicaPlayer, awaitLookup(databaseManager, replicaPlayer));
+    }
+
+    @Test
+    public void testFallsBackToPrimaryWhenReplicaFails() throws Exception {
+        UUID replicaPlayer = UUID.randomUUID();
+        addToReplica(replicaPlayer);
+
+        DatabaseManager databaseManager = connect(replicaUrl);
+        UUID primaryPlayer = UUID.randomUUID();
+        databaseManager.addPlayerAddress(primaryPlayer, ADDRESS);
+        assertEquals(replicaPlayer, awaitLookup(databaseManager, replicaPlayer));
+
+        try (Statement statement = replica.createStatement()) {
+            statement.execute("DROP TABLE player_addresses;");
+        }
+
+        assertEquals(primaryPlayer, databaseManager.getPlayerUUID(ADDRESS));
+        assertEquals(primaryPlayer, databaseManager.getPlayerUUID(ADDRESS));
+    }
+
+    @Test
+    public void testUnreachableReplicaUsesPrimary() {
+        DatabaseManager databaseManager = connect("jdbc:h2:tcp://127.0.0.1:1/missing;MODE=MySQL");
+        UUID player = UUID.randomUUID();
+        databaseManager.addPlayerAddress(player, ADDRESS);
+
+        assertEquals(player, databaseManager.getPlayerUUID(ADDRESS));
+        assertNull(databaseManager.getPlayerUUID("10.0.0.2"));
+    }
+
+    @Test
+    public void testExportImportRoundTrip() throws Exception {
+        DatabaseManager source = connect(null);
+        Map<UUID, String> players = new LinkedHashMap<>();
+        // More than one import batch, with a partial batch at the end.
+        for (int i = 0; i < 2500; i++) {
+            UUID player = UUID.randomUUID();
+            String address = "10.1." + (i / 256) + "." + (i % 256);
+            players.put(player, address);
+            source.addPlayerAddress(player, address);
+        }
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(exported)) {
+            assertEquals(players.size(), source.exportAddresses(out, (rows, elapsed) -> {}));
+        }
+
+        DatabaseManager target = new DatabaseManager("jdbc:h2:mem:import-" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "sa", "");
+        try {
+            target.connect();
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(exported.toByteArray()))) {
+                assertEquals(players.size(), target.importAddresses(in, (rows, elapsed) -> {}));
+            }
+            for (Map.Entry<UUID, String> player : players.entrySet()) {
+                assertEquals(player.getValue(), target.getPlayerAddress(player.getKey()));
+            }
+        } finally {
+            target.disconnect();
+        }
+    }
+
+    @Test
+    public void testImportReportsLineOfBadUuid() throws Exception {
+        DatabaseManager databaseManager = connect(null);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 1001; i++) {
+            input.append("{\"uuid\":\"").append(UUID.randomUUID()).append("\",\"address\":\"10.2.0.1\"}\n");
+        }
+        input.append("\n{\"uuid\":\"not-a-uuid\",\"address\":\"10.2.0.2\"}\n");
+
+        assertImportFailsOnLine(databaseManager, input.toString(), 1003);
+        // The first batch was committed before the bad line was reached.
+        try (Connection connection = DriverManager.getConnection(primaryUrl, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM player_addresses;")) {
+            result.next();
+            assertEquals(1000, result.getInt(1));
+        }
+    }
+
+    @Test
+    public void testImportReportsLineOfMalformedJson() throws Exception {
+        DatabaseManager databaseManager = connect(null);
+        String input = "{\"uuid\":\"" + UUID.randomUUID() + "\",\"address\":\"10.3.0.1\"}\n{\"uuid\": \n";
+
+        assertImportFailsOnLine(databaseManager, input, 2);
+    }
+
+    private static void assertImportFailsOnLine(DatabaseManager databaseManager, String input, int line) throws SQLException {
+        try {
+            databaseManager.importAddresses(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), (rows, elapsed) -> {});
+            fail("The import should have failed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().matches("(?s)Invalid row on line " + line + "\\D.*"));
+        }
+    }
+
+    private static class TestPlatform implements AdvancedServerListIcons {
+
+        private final File dataFolder;
+
+        TestPlatform(File dataFolder) {
+            this.dataFolder = dataFolder;
+        }
+
+        @Override
+        public DatabaseManager getDatabaseManager() {
+            return null;
+        }
+
+        @Override
+        public ImageHandler getImageHandler() {
+            return null;
+        }
+
+        @Override
+        public File getDataFolder() {
+            return dataFolder;
+        }
+
+        @Override
+        public Logger getLogger() {
+            return Logger.getLogger("AdvancedServerListIcons");
+        }
+    }
+}
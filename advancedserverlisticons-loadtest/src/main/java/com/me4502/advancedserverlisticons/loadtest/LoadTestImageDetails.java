@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons.loadtest;
+
+import com.me4502.advancedserverlisticons.ImageDetails;
+import com.me4502.advancedserverlisticons.ImageType;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Grants permissions to a fixed share of players, in place of a permissions plugin.
+ */
+public class LoadTestImageDetails extends ImageDetails {
+
+    private final int grantedPercent;
+
+    public LoadTestImageDetails(String name, int priority, ImageType type, String permission, List<String> images, int grantedPercent) {
+        super(name, priority, type, permission, images);
+        this.grantedPercent = grantedPercent;
+    }
+
+    @Override
+    public boolean canUse(UUID player) {
+        return getPermission() == null || Math.floorMod(player.hashCode(), 100) < grantedPercent;
+    }
+}
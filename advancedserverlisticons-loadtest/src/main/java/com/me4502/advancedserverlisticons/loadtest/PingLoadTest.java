@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons.loadtest;
+
+import com.me4502.advancedserverlisticons.AdvancedServerListIcons;
+import com.me4502.advancedserverlisticons.DatabaseManager;
+import com.me4502.advancedserverlisticons.FaviconCache;
+import com.me4502.advancedserverlisticons.ImageHandler;
+import com.me4502.advancedserverlisticons.ImageType;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * PingLoadTest.
+ *
+ * Drives the whole ping pipeline (address lookup, icon rendering and the
+ * skin fetch) at a fixed rate against an embedded H2 database and a stub
+ * session server, then reports latency percentiles, throughput and
+ * allocation rate.
+ *
+ * Pings are issued open-loop, and latency is measured from when each ping
+ * was due, so a stalled pipeline shows up in the tail instead of lowering
+ * the offered rate.
+ */
+public class PingLoadTest {
+
+    private final int rate;
+    private final int duration;
+    private final int warmup;
+    private final int players;
+    private final double unknownRatio;
+    private final double zipfExponent;
+    private final int threads;
+    private final int skins;
+    private final long mojangLatency;
+
+    private FaviconCache<String> faviconCache;
+
+    private String[] addresses;
+    private double[] addressWeights;
+
+    private long[] latencies;
+    private final AtomicInteger latencyCount = new AtomicInteger();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean recording;
+
+    private PingLoadTest(Map<String, String> options) {
+        this.rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        this.duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        this.warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        this.players = Integer.parseInt(options.getOrDefault("players", "5000"));
+        this.unknownRatio = Double.parseDouble(options.getOrDefault("unknown-ratio", "0.3"));
+        this.zipfExponent = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.skins = Integer.parseInt(options.getOrDefault("skins", "50"));
+        this.mojangLatency = Long.parseLong(options.getOrDefault("mojang-latency-ms", "20"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Usage: PingLoadTest [--rate=500] [--duration=30] [--warmup=10] [--players=5000] [--unknown-ratio=0.3]"
+                        + " [--zipf=1.0] [--threads=8] [--skins=50] [--mojang-latency-ms=20]");
+                return;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        new PingLoadTest(options).run();
+    }
+
+    private void run() throws Exception {
+        File dataFolder = Files.createTempDirectory("asli-loadtest").toFile();
+        LoadTestPlatform platform = new LoadTestPlatform(dataFolder);
+        AdvancedServerListIcons.setInstance(platform);
+
+        StubSessionServer sessionServer = new StubSessionServer(skins, mojangLatency);
+        sessionServer.start();
+
+        DatabaseManager databaseManager = new DatabaseManager("jdbc:h2:mem:asli;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        databaseManager.connect();
+        platform.setDatabaseManager(databaseManager);
+
+        ImageHandler imageHandler = new ImageHandler(sessionServer.getSessionServerUrl());
+        platform.setImageHandler(imageHandler);
+        setupDefinitions(dataFolder, imageHandler);
+        faviconCache = new FaviconCache<>(imageHandler, PingLoadTest::encodeFavicon);
+
+        seedAddresses(databaseManager);
+
+        ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        latencies = new long[(int) Math.min(Integer.MAX_VALUE - 8, (long) rate * duration * 2)];
+
+        System.out.println("Warming up for " + warmup + "s at " + rate + " pings/s...");
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        // When the schedule started, and how many pings it has issued. Only the generator thread touches these after it starts.
+        long[] schedule = new long[2];
+        Runnable issuePing = () -> {
+            // Taken from the schedule rather than the clock, so runs caught up after a stall still count the stall.
+            long due = schedule[0] + schedule[1]++ * period;
+            workers.execute(() -> ping(due));
+        };
+        schedule[0] = System.nanoTime();
+        generator.scheduleAtFixedRate(issuePing, 0, period, TimeUnit.NANOSECONDS);
+
+        TimeUnit.SECONDS.sleep(warmup);
+
+        System.out.println("Measuring for " + duration + "s...");
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        recording = true;
+        TimeUnit.SECONDS.sleep(duration);
+        recording = false;
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+
+        generator.shutdownNow();
+        workers.shutdown();
+        workers.awaitTermination(30, TimeUnit.SECONDS);
+
+        report(elapsed, allocatedAfter - allocatedBefore);
+
+        imageHandler.shutdown();
+        databaseManager.disconnect();
+        sessionServer.stop();
+    }
+
+    private void setupDefinitions(File dataFolder, ImageHandler imageHandler) throws IOException {
+        File imagesDirectory = new File(dataFolder, "images");
+        imagesDirectory.mkdirs();
+
+        BufferedImage overlay = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = overlay.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.drawRect(0, 0, 63, 63);
+        g.dispose();
+        ImageIO.write(overlay, "png", new File(imagesDirectory, "overlay.png"));
+
+        imageHandler.addImage(new LoadTestImageDetails("mainOverlay", 2, ImageType.OVERLAY, "icon.advanced", Collections.singletonList("overlay.png"), 10));
+        imageHandler.addImage(new LoadTestImageDetails("defaultUnderlay", 1, ImageType.UNDERLAY, null, Collections.singletonList("overlay.png"), 100));
+    }
+
+    private void seedAddresses(DatabaseManager databaseManager) {
+        System.out.println("Seeding " + players + " player addresses...");
+        Random random = new Random(players);
+        addresses = new String[players];
+        addressWeights = new double[players];
+        double total = 0;
+        for (int i = 0; i < players; i++) {
+            addresses[i] = "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF);
+            databaseManager.addPlayerAddress(new UUID(random.nextLong(), random.nextLong()), addresses[i]);
+
+            total += 1 / Math.pow(i + 1, zipfExponent);
+            addressWeights[i] = total;
+        }
+        for (int i = 0; i < players; i++) {
+            addressWeights[i] /= total;
+        }
+    }
+
+    private String nextAddress() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < unknownRatio) {
+            return "192.168." + random.nextInt(256) + "." + random.nextInt(256);
+        }
+        int index = Arrays.binarySearch(addressWeights, random.nextDouble());
+        return addresses[Math.min(index < 0 ? -index - 1 : index, players - 1)];
+    }
+
+    /**
+     * Encodes a favicon as the server does before sending it.
+     *
+     * @param image The icon
+     * @return The favicon data URI
+     * @throws IOException If the icon couldn't be encoded
+     */
+    private static String encodeFavicon(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Runs the same steps as a platform ping handler.
+     *
+     * @param due When the ping was due to start, from {@link System#nanoTime()}
+     */
+    private void ping(long due) {
+        try {
+            UUID uuid = AdvancedServerListIcons.inst().getDatabaseManager().getPlayerUUID(nextAddress());
+            if (uuid != null) {
+                faviconCache.getFavicon(uuid, "Player");
+            }
+        } catch (Exception e) {
+            if (recording) {
+                errors.incrementAndGet();
+            }
+        }
+
+        if (recording) {
+            int index = latencyCount.getAndIncrement();
+            if (index < latencies.length) {
+                latencies[index] = System.nanoTime() - due;
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Adds up the bytes allocated by every live thread. Threads that exited
+     * are missed, so every pool the test runs is fixed size.
+     *
+     * @return The allocated bytes
+     */
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private void report(long elapsedNanos, long allocatedBytes) {
+        int count = Math.min(latencyCount.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println();
+        System.out.println("Pings:       " + count + " (" + errors.get() + " errors, " + dropped.get() + " unrecorded)");
+        System.out.printf("Throughput:  %.1f pings/s (offered %d pings/s)%n", count / seconds, rate);
+        System.out.printf("Latency p50:  %.3f ms%n", percentile(sorted, 0.5));
+        System.out.printf("Latency p99:  %.3f ms%n", percentile(sorted, 0.99));
+        System.out.printf("Latency p999: %.3f ms%n", percentile(sorted, 0.999));
+        System.out.printf("Latency max:  %.3f ms%n", count == 0 ? 0 : sorted[count - 1] / 1e6);
+        System.out.printf("Allocation:  %.1f MB/s (%.1f KB/ping)%n", allocatedBytes / seconds / (1024 * 1024),
+                count == 0 ? 0 : allocatedBytes / 1024.0 / count);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
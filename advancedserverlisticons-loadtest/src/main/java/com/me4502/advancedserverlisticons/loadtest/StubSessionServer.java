@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons.loadtest;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * Stands in for both the Mojang session server and the texture CDN.
+ *
+ * Profiles are answered for any UUID, each pointing at one of a small set of
+ * generated skins, so many players share a skin as they do in practice.
+ */
+public class StubSessionServer {
+
+    private final int skinCount;
+    private final long latencyMillis;
+    private final byte[][] skins;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public StubSessionServer(int skinCount, long latencyMillis) throws IOException {
+        this.skinCount = skinCount;
+        this.latencyMillis = latencyMillis;
+        this.skins = new byte[skinCount][];
+
+        Random random = new Random(skinCount);
+        for (int i = 0; i < skinCount; i++) {
+            BufferedImage skin = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+            for (int x = 0; x < 64; x++) {
+                for (int y = 0; y < 64; y++) {
+                    skin.setRGB(x, y, 0xFF000000 | random.nextInt(0xFFFFFF));
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(skin, "png", out);
+            skins[i] = out.toByteArray();
+        }
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        // Fixed size, as the load test can only count allocations of threads that are still alive.
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/session/minecraft/profile/", this::handleProfile);
+        server.createContext("/texture/", this::handleTexture);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getSessionServerUrl() {
+        return getBaseUrl() + "/session/minecraft/profile/";
+    }
+
+    private String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    private void handleProfile(HttpExchange exchange) throws IOException {
+        simulateLatency();
+        String path = exchange.getRequestURI().getPath();
+        String id = path.substring(path.lastIndexOf('/') + 1);
+        int skin = Math.floorMod(id.hashCode(), skinCount);
+
+        String textures = "{\"timestamp\":" + System.currentTimeMillis() + ",\"profileId\":\"" + id + "\",\"textures\":{\"SKIN\":{\"url\":\""
+                + getBaseUrl() + "/texture/" + skin + "\"}}}";
+        String profile = "{\"id\":\"" + id + "\",\"name\":\"Player\",\"properties\":[{\"name\":\"textures\",\"value\":\""
+                + Base64.getEncoder().encodeToString(textures.getBytes(Charsets.UTF_8)) + "\"}]}";
+        respond(exchange, profile.getBytes(Charsets.UTF_8));
+    }
+
+    private void handleTexture(HttpExchange exchange) throws IOException {
+        simulateLatency();
+        String path = exchange.getRequestURI().getPath();
+        int skin = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+        respond(exchange, skins[skin]);
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.Favicon;
+import net.md_5.bungee.api.chat.TextComponent;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.event.ProxyPingEvent;
+import net.md_5.bungee.api.plugin.Command;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.config.Configuration;
+import net.md_5.bungee.config.ConfigurationProvider;
+import net.md_5.bungee.config.YamlConfiguration;
+import net.md_5.bungee.event.EventHandler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class AdvancedServerListIconsBungee extends Plugin implements Listener, ProxyPlatform<Favicon> {
+
+    private final AdvancedServerListIconsProxy<Favicon> proxy = new AdvancedServerListIconsProxy<>(this);
+
+    private final AdminCommands adminCommands = new AdminCommands();
+
+    @Override
+    public void onEnable() {
+        getProxy().getPluginManager().registerListener(this, this);
+        getProxy().getPluginManager().registerCommand(this, new Command("asli", AdminCommands.PERMISSION, "advancedserverlisticons") {
+            @Override
+            public void execute(CommandSender sender, String[] args) {
+                adminCommands.handle(args, message -> sender.sendMessage(new TextComponent(message)));
+            }
+        });
+
+        loadConfig();
+    }
+
+    private void loadConfig() {
+        try {
+            File configFile = new File(getDataFolder(), "config.yml");
+            if (!configFile.exists()) {
+                getDataFolder().mkdirs();
+                try (InputStream defaultConfig = getResourceAsStream("config.yml")) {
+                    Files.copy(defaultConfig, configFile.toPath());
+                }
+            }
+            Configuration config = ConfigurationProvider.getProvider(YamlConfiguration.class).load(configFile);
+
+            String user = config.getString("jdbc-username", "root");
+            String password = config.getString("jdbc-password", "password");
+            String jdbcUrl = config.getString("jdbc-url", "jdbc:mysql://localhost:3306/minecraft");
+            String replicaJdbcUrl = config.getString("jdbc-replica-url", "");
+
+            DatabaseManager.PoolSettings poolSettings = new DatabaseManager.PoolSettings()
+                    .setMaximumPoolSize(config.getInt("pool.maximum-size", 10))
+                    .setMinimumIdle(config.getInt("pool.minimum-idle", 2))
+                    .setConnectionTimeout(config.getLong("pool.connection-timeout-ms", 5000))
+                    .setIdleTimeout(config.getLong("pool.idle-timeout-ms", 600000))
+                    .setMaxLifetime(config.getLong("pool.max-lifetime-ms", 1800000))
+                    .setReplicaMaxLag(config.getLong("pool.replica-max-lag-seconds", 10))
+                    .setReplicaCheckInterval(config.getLong("pool.replica-check-interval-ms", 5000))
+                    .setReplicaConnectionTimeout(config.getLong("pool.replica-connection-timeout-ms", 500));
+
+            proxy.enable(new DatabaseManager(jdbcUrl, replicaJdbcUrl, user, password, poolSettings));
+
+            ImageHandler imageHandler = proxy.getImageHandler();
+            long maxMegabytes = config.getLong("head-cache.max-megabytes", 256);
+            imageHandler.getDiskCache().setLimits(maxMegabytes * 1024 * 1024, config.getInt("head-cache.max-files", 100000));
+
+            long refreshAhead = config.getLong("head-refresh.refresh-ahead-minutes", 120);
+            long inactiveDays = config.getLong("head-refresh.inactive-days", 30);
+            imageHandler.getRefreshScheduler().setPeriods(TimeUnit.MINUTES.toMillis(refreshAhead), TimeUnit.DAYS.toMillis(inactiveDays));
+            imageHandler.setMaxConcurrentRefreshes(config.getInt("head-refresh.max-concurrent", 2));
+
+            Configuration definitions = config.getSection("definitions");
+            for (String definitionKey : definitions.getKeys()) {
+                Configuration definition = definitions.getSection(definitionKey);
+
+                int priority = definition.getInt("priority", 1);
+                ImageType type = ImageType.valueOf(definition.getString("type", ImageType.OVERLAY.name()));
+                String permission = definition.getString("permission", null);
+                List<String> images = definition.getStringList("images");
+
+                proxy.addDefinition(definitionKey, priority, type, permission, images);
+            }
+
+            // Connect off the main thread, pings get the default icon until this is done.
+            proxy.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        proxy.disable();
+    }
+
+    @EventHandler
+    public void onPostLogin(PostLoginEvent event) {
+        proxy.onJoin(new BungeeProxyPlayer(event.getPlayer()));
+    }
+
+    @EventHandler
+    public void onProxyPing(ProxyPingEvent event) {
+        SocketAddress socketAddress = event.getConnection().getSocketAddress();
+        if (!(socketAddress instanceof InetSocketAddress)) {
+            // Pings over a unix socket have no host address to look up.
+            return;
+        }
+        String address = ((InetSocketAddress) socketAddress).getAddress().getHostAddress();
+        event.registerIntent(this);
+        proxy.onPingAsync(address, favicon -> {
+            try {
+                favicon.ifPresent(icon -> event.getResponse().setFavicon(icon));
+            } finally {
+                event.completeIntent(this);
+            }
+        });
+    }
+
+    @Override
+    public Optional<ProxyPlayer> getOnlinePlayer(UUID uuid) {
+        ProxiedPlayer player = getProxy().getPlayer(uuid);
+        return player == null ? Optional.empty() : Optional.of(new BungeeProxyPlayer(player));
+    }
+
+    @Override
+    public Favicon createFavicon(BufferedImage image) {
+        return Favicon.create(image);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        getProxy().getScheduler().runAsync(this, task);
+    }
+
+    private static class BungeeProxyPlayer implements ProxyPlayer {
+        private final ProxiedPlayer player;
+
+        BungeeProxyPlayer(ProxiedPlayer player) {
+            this.player = player;
+        }
+
+        @Override
+        public UUID getUniqueId() {
+            return player.getUniqueId();
+        }
+
+        @Override
+        public String getName() {
+            return player.getName();
+        }
+
+        @Override
+        public String getAddress() {
+            SocketAddress socketAddress = player.getSocketAddress();
+            return socketAddress instanceof InetSocketAddress ? ((InetSocketAddress) socketAddress).getAddress().getHostAddress() : null;
+        }
+
+        @Override
+        public boolean hasPermission(String permission) {
+            return player.hasPermission(permission);
+        }
+    }
+}
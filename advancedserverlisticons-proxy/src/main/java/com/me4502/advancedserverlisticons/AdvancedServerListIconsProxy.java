@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * AdvancedServerListIconsProxy.
+ *
+ * Answers personalised pings at the proxy, and records joins seen there,
+ * so backend servers behind it do no ping work. Proxy specifics are kept
+ * behind {@link ProxyPlatform}.
+ *
+ * Proxies can't look up the permissions of offline players, so the
+ * permissions used by definitions are remembered from each player's last
+ * join.
+ *
+ * @param <F> The proxy favicon type
+ */
+public class AdvancedServerListIconsProxy<F> implements AdvancedServerListIcons {
+
+    static final int PING_THREADS = 4;
+    static final int PING_QUEUE_SIZE = 256;
+
+    private final ProxyPlatform<F> platform;
+
+    // Bounded, so a ping flood can't pile up threads or queued pings on the proxy.
+    private final ThreadPoolExecutor pingExecutor = new ThreadPoolExecutor(PING_THREADS, PING_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(PING_QUEUE_SIZE), new ThreadFactoryBuilder().setNameFormat("ASLI Ping %d").setDaemon(true).build());
+
+    private final Set<String> definitionPermissions = ConcurrentHashMap.newKeySet();
+    private final Cache<UUID, ProxyProfile> profiles = CacheBuilder.newBuilder().maximumSize(100000).expireAfterAccess(30, TimeUnit.DAYS).build();
+
+    private DatabaseManager databaseManager;
+    private ImageHandler imageHandler;
+    private FaviconCache<F> faviconCache;
+
+    public AdvancedServerListIconsProxy(ProxyPlatform<F> platform) {
+        this.platform = platform;
+    }
+
+    /**
+     * Sets this up as the running plugin. Add definitions, then call {@link #start()}.
+     *
+     * @param databaseManager The unconnected database manager
+     */
+    public void enable(DatabaseManager databaseManager) {
+        AdvancedServerListIcons.setInstance(this);
+        this.databaseManager = databaseManager;
+        this.imageHandler = new ImageHandler();
+        this.faviconCache = new FaviconCache<>(imageHandler, platform::createFavicon);
+    }
+
+    public void addDefinition(String name, int priority, ImageType type, String permission, List<String> images) {
+        if (permission != null) {
+            definitionPermissions.add(permission);
+        }
+        imageHandler.addImage(new ProxyImageDetails(this, name, priority, type, permission, images));
+    }
+
+    /**
+     * Connects to the database in the background.
+     */
+    public void start() {
+        new StartupTask(this).start();
+    }
+
+    public void disable() {
+        pingExecutor.shutdownNow();
+        imageHandler.shutdown();
+        databaseManager.disconnect();
+    }
+
+    /**
+     * Records a player joining the proxy.
+     *
+     * @param player The player
+     */
+    public void onJoin(ProxyPlayer player) {
+        Set<String> permissions = new HashSet<>();
+        for (String permission : definitionPermissions) {
+            if (player.hasPermission(permission)) {
+                permissions.add(permission);
+            }
+        }
+        profiles.put(player.getUniqueId(), new ProxyProfile(player.getName(), permissions));
+        imageHandler.getRefreshScheduler().markSeen(player.getUniqueId());
+
+        String address = player.getAddress();
+        if (address != null) {
+            platform.runAsync(() -> databaseManager.addPlayerAddress(player.getUniqueId(), address));
+        }
+    }
+
+    /**
+     * Looks up the favicon to answer a ping with on the ping threads. When
+     * they are all busy, the callback gets the default straight away.
+     *
+     * @param address The host address the ping came from
+     * @param callback Given the favicon, or empty to use the default
+     */
+    public void onPingAsync(String address, Consumer<Optional<F>> callback) {
+        try {
+            pingExecutor.execute(() -> callback.accept(onPing(address)));
+        } catch (RejectedExecutionException e) {
+            callback.accept(Optional.empty());
+        }
+    }
+
+    /**
+     * Gets the favicon to answer a ping with. This blocks on the database
+     * and skin lookups, so call it off the proxy network threads.
+     *
+     * @param address The host address the ping came from
+     * @return The favicon, or empty to use the default
+     */
+    public Optional<F> onPing(String address) {
+        UUID uuid = databaseManager.getPlayerUUID(address);
+        if (uuid == null) {
+            return Optional.empty();
+        }
+
+        Object profileEvent = PingTracer.begin(PingTracer.Stage.PROFILE_RESOLVE);
+        ProxyProfile profile = profiles.getIfPresent(uuid);
+        PingTracer.end(profileEvent, uuid, null, profile != null ? "hit" : "miss");
+        try {
+            return Optional.ofNullable(faviconCache.getFavicon(uuid, profile == null ? null : profile.name));
+        } catch (Exception e) {
+            getLogger().log(Level.FINE, "Failed to create icon for " + uuid, e);
+            return Optional.empty();
+        }
+    }
+
+    boolean hasPermission(UUID uuid, String permission) {
+        Optional<ProxyPlayer> player = platform.getOnlinePlayer(uuid);
+        if (player.isPresent()) {
+            return player.get().hasPermission(permission);
+        }
+        ProxyProfile profile = profiles.getIfPresent(uuid);
+        return profile != null && profile.permissions.contains(permission);
+    }
+
+    @Override
+    public DatabaseManager getDatabaseManager() {
+        return databaseManager;
+    }
+
+    @Override
+    public ImageHandler getImageHandler() {
+        return imageHandler;
+    }
+
+    @Override
+    public File getDataFolder() {
+        return platform.getDataFolder();
+    }
+
+    @Override
+    public Logger getLogger() {
+        return platform.getLogger();
+    }
+
+    private static class ProxyProfile {
+        private final String name;
+        private final Set<String> permissions;
+
+        ProxyProfile(String name, Set<String> permissions) {
+            this.name = name;
+            this.permissions = permissions;
+        }
+    }
+}
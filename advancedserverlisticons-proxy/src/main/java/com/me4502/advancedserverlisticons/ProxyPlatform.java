@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * The parts of a proxy that the proxy module needs, so it can run against
+ * any proxy, or a fake one without a network.
+ *
+ * @param <F> The proxy favicon type
+ */
+public interface ProxyPlatform<F> {
+
+    File getDataFolder();
+
+    Logger getLogger();
+
+    /**
+     * Gets a player connected to the proxy.
+     *
+     * @param uuid The player
+     * @return The player, if they are online
+     */
+    Optional<ProxyPlayer> getOnlinePlayer(UUID uuid);
+
+    /**
+     * Creates a proxy favicon from an icon.
+     *
+     * @param image The icon
+     * @return The favicon
+     * @throws Exception If the favicon couldn't be created
+     */
+    F createFavicon(BufferedImage image) throws Exception;
+
+    /**
+     * Runs a task off the proxy network threads.
+     *
+     * @param task The task
+     */
+    void runAsync(Runnable task);
+}
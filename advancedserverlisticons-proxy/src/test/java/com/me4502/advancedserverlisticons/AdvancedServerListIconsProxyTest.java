@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Drives joins and pings through the proxy module, with a fake proxy and an
+ * embedded database standing in for the real ones.
+ */
+public class AdvancedServerListIconsProxyTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakePlatform platform;
+    private AdvancedServerListIconsProxy<BufferedImage> proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        platform = new FakePlatform(temporaryFolder.getRoot());
+        proxy = new AdvancedServerListIconsProxy<>(platform);
+        proxy.enable(new DatabaseManager("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", ""));
+
+        BufferedImage overlay = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        ImageIO.write(overlay, "png", new File(new File(temporaryFolder.getRoot(), "images"), "vip.png"));
+        proxy.addDefinition("vip", 1, ImageType.OVERLAY, "asli.vip", Collections.singletonList("vip.png"));
+
+        new StartupTask(proxy).run();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.disable();
+        AdvancedServerListIcons.setInstance(null);
+    }
+
+    /**
+     * Joins a player, with their head already on disk so no skin lookup is needed.
+     */
+    private FakePlayer join(String address, String... permissions) throws IOException {
+        FakePlayer player = new FakePlayer(UUID.randomUUID(), address, permissions);
+        BufferedImage head = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+        ImageIO.write(head, "png", proxy.getImageHandler().getHeadFile(player.getUniqueId()));
+        platform.online.put(player.getUniqueId(), player);
+        proxy.onJoin(player);
+        return player;
+    }
+
+    @Test
+    public void testPingFromJoinedAddressGetsHead() throws IOException {
+        join("10.0.0.1");
+
+        Optional<BufferedImage> favicon = proxy.onPing("10.0.0.1");
+        assertTrue(favicon.isPresent());
+        assertEquals(32, favicon.get().getWidth());
+    }
+
+    @Test
+    public void testPingFromUnknownAddressGetsDefault() {
+        assertFalse(proxy.onPing("10.0.0.2").isPresent());
+    }
+
+    @Test
+    public void testDefinitionUsesPermissionsFromLastJoin() throws IOException {
+        FakePlayer vip = join("10.0.0.3", "asli.vip");
+        join("10.0.0.4");
+        // Offline players can't be asked, so the permissions seen at join are used.
+        platform.online.remove(vip.getUniqueId());
+
+        assertEquals(64, proxy.onPing("10.0.0.3").get().getWidth());
+        assertEquals(32, proxy.onPing("10.0.0.4").get().getWidth());
+    }
+
+    @Test
+    public void testBusyPingThreadsAnswerWithDefault() throws Exception {
+        join("10.0.0.5");
+        platform.faviconGate = new CountDownLatch(1);
+
+        int accepted = AdvancedServerListIconsProxy.PING_THREADS + AdvancedServerListIconsProxy.PING_QUEUE_SIZE;
+        CountDownLatch answered = new CountDownLatch(accepted);
+        for (int i = 0; i < accepted; i++) {
+            proxy.onPingAsync("10.0.0.5", favicon -> answered.countDown());
+        }
+
+        AtomicReference<Optional<BufferedImage>> rejected = new AtomicReference<>();
+        proxy.onPingAsync("10.0.0.5", rejected::set);
+        assertEquals(Optional.empty(), rejected.get());
+
+        platform.faviconGate.countDown();
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+    }
+
+    private static class FakePlatform implements ProxyPlatform<BufferedImage> {
+
+        private final File dataFolder;
+        private final Map<UUID, ProxyPlayer> online = new ConcurrentHashMap<>();
+        private volatile CountDownLatch faviconGate;
+
+        FakePlatform(File dataFolder) {
+            this.dataFolder = dataFolder;
+        }
+
+        @Override
+        public File getDataFolder() {
+            return dataFolder;
+        }
+
+        @Override
+        public Logger getLogger() {
+            return Logger.getLogger("AdvancedServerListIcons");
+        }
+
+        @Override
+        public Optional<ProxyPlayer> getOnlinePlayer(UUID uuid) {
+            return Optional.ofNullable(online.get(uuid));
+        }
+
+        @Override
+        public BufferedImage createFavicon(BufferedImage image) throws Exception {
+            CountDownLatch gate = faviconGate;
+            if (gate != null) {
+                gate.await();
+            }
+            return image;
+        }
+
+        @Override
+        public void runAsync(Runnable task) {
+            task.run();
+        }
+    }
+
+    private static class FakePlayer implements ProxyPlayer {
+
+        private final UUID uuid;
+        private final String address;
+        private final Set<String> permissions;
+
+        FakePlayer(UUID uuid, String address, String... permissions) {
+            this.uuid = uuid;
+            this.address = address;
+            this.permissions = new HashSet<>(Arrays.asList(permissions));
+        }
+
+        @Override
+        public UUID getUniqueId() {
+            return uuid;
+        }
+
+        @Override
+        public String getName() {
+            return "Player";
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public boolean hasPermission(String permission) {
+            return permissions.contains(permission);
+        }
+    }
+}
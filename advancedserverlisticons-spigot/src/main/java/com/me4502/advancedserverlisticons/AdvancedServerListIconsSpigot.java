@@ -24,6 +24,8 @@ package com.me4502.advancedserverlisticons;
 import net.milkbowl.vault.permission.Permission;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
@@ -34,11 +36,13 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.server.ServerListPingEvent;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.util.CachedServerIcon;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public final class AdvancedServerListIconsSpigot extends JavaPlugin implements Listener, AdvancedServerListIcons {
 
@@ -46,6 +50,11 @@ public final class AdvancedServerListIconsSpigot extends JavaPlugin implements L
 
     private DatabaseManager databaseManager;
     private ImageHandler imageHandler;
+    private FaviconCache<CachedServerIcon> faviconCache;
+
+    private boolean proxyMode;
+
+    private final AdminCommands adminCommands = new AdminCommands();
 
     @Override
     public void onEnable() {
@@ -56,8 +65,6 @@ public final class AdvancedServerListIconsSpigot extends JavaPlugin implements L
 
         Bukkit.getPluginManager().registerEvents(this, this);
 
-        imageHandler = new ImageHandler();
-
         loadConfig();
     }
 
@@ -72,12 +79,41 @@ public final class AdvancedServerListIconsSpigot extends JavaPlugin implements L
             config.load(new File(getDataFolder(), "config.yml"));
             config.options().copyDefaults(true);
 
+            proxyMode = config.getBoolean("proxy-mode", false);
+            if (proxyMode) {
+                // The proxy answers pings and records joins, so there is no database or head to load here.
+                config.save(new File(getDataFolder(), "config.yml"));
+                getLogger().info("Proxy mode is enabled, leaving server list icons to the proxy.");
+                return;
+            }
+
+            imageHandler = new ImageHandler();
+            faviconCache = new FaviconCache<>(imageHandler, Bukkit::loadServerIcon);
+
             String user = config.getString("jdbc-username", "root");
             String password = config.getString("jdbc-password", "password");
             String jdbcUrl = config.getString("jdbc-url", "jdbc:mysql://localhost:3306/minecraft");
+            String replicaJdbcUrl = config.getString("jdbc-replica-url", "");
+
+            DatabaseManager.PoolSettings poolSettings = new DatabaseManager.PoolSettings()
+                    .setMaximumPoolSize(config.getInt("pool.maximum-size", 10))
+                    .setMinimumIdle(config.getInt("pool.minimum-idle", 2))
+                    .setConnectionTimeout(config.getLong("pool.connection-timeout-ms", 5000))
+                    .setIdleTimeout(config.getLong("pool.idle-timeout-ms", 600000))
+                    .setMaxLifetime(config.getLong("pool.max-lifetime-ms", 1800000))
+                    .setReplicaMaxLag(config.getLong("pool.replica-max-lag-seconds", 10))
+                    .setReplicaCheckInterval(config.getLong("pool.replica-check-interval-ms", 5000))
+                    .setReplicaConnectionTimeout(config.getLong("pool.replica-connection-timeout-ms", 500));
+
+            databaseManager = new DatabaseManager(jdbcUrl, replicaJdbcUrl, user, password, poolSettings);
+
+            long maxMegabytes = config.getLong("head-cache.max-megabytes", 256);
+            imageHandler.getDiskCache().setLimits(maxMegabytes * 1024 * 1024, config.getInt("head-cache.max-files", 100000));
 
-            databaseManager = new DatabaseManager(jdbcUrl, user, password);
-            databaseManager.connect();
+            long refreshAhead = config.getLong("head-refresh.refresh-ahead-minutes", 120);
+            long inactiveDays = config.getLong("head-refresh.inactive-days", 30);
+            imageHandler.getRefreshScheduler().setPeriods(TimeUnit.MINUTES.toMillis(refreshAhead), TimeUnit.DAYS.toMillis(inactiveDays));
+            imageHandler.setMaxConcurrentRefreshes(config.getInt("head-refresh.max-concurrent", 2));
 
             ConfigurationSection definitions = config.getConfigurationSection("definitions");
             for (String definitionKey : definitions.getKeys(false)) {
@@ -88,11 +124,14 @@ public final class AdvancedServerListIconsSpigot extends JavaPlugin implements L
                 String permission = definition.getString("permission");
                 List<String> images = definition.getStringList("images");
 
-                SpigotImageDetails imageDetails = new SpigotImageDetails(priority, type, permission, images);
+                SpigotImageDetails imageDetails = new SpigotImageDetails(definitionKey, priority, type, permission, images);
                 imageHandler.addImage(imageDetails);
             }
 
             config.save(new File(getDataFolder(), "config.yml"));
+
+            // Connect off the main thread, pings get the default icon until this is done.
+            new StartupTask(this).start();
         } catch (IOException | InvalidConfigurationException e) {
             e.printStackTrace();
         }
@@ -100,21 +139,45 @@ public final class AdvancedServerListIconsSpigot extends JavaPlugin implements L
 
     @Override
     public void onDisable() {
-        getDatabaseManager().disconnect();
+        if (imageHandler != null) {
+            imageHandler.shutdown();
+        }
+        if (databaseManager != null) {
+            databaseManager.disconnect();
+        }
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        adminCommands.handle(args, sender::sendMessage);
+        return true;
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        if (proxyMode) {
+            return;
+        }
+        getImageHandler().getRefreshScheduler().markSeen(event.getPlayer().getUniqueId());
         getDatabaseManager().addPlayerAddress(event.getPlayer().getUniqueId(), event.getPlayer().getAddress().getAddress().getHostAddress());
     }
 
     @EventHandler
     public void onServerListPing(ServerListPingEvent event) {
+        if (proxyMode) {
+            return;
+        }
         UUID uuid = getDatabaseManager().getPlayerUUID(event.getAddress().getHostAddress());
         if (uuid != null) {
+            Object profileEvent = PingTracer.begin(PingTracer.Stage.PROFILE_RESOLVE);
             OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
+            // Offline players are always created on demand, so there is no outcome to report.
+            PingTracer.end(profileEvent, uuid, null, null);
             try {
-                event.setServerIcon(Bukkit.loadServerIcon(getImageHandler().getImageForUser(player.getUniqueId(), player.getName())));
+                CachedServerIcon icon = faviconCache.getFavicon(player.getUniqueId(), player.getName());
+                if (icon != null) {
+                    event.setServerIcon(icon);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -28,8 +28,8 @@ import java.util.UUID;
 
 public class SpigotImageDetails extends ImageDetails {
 
-    public SpigotImageDetails(int priority, ImageType type, String permission, List<String> images) {
-        super(priority, type, permission, images);
+    public SpigotImageDetails(String name, int priority, ImageType type, String permission, List<String> images) {
+        super(name, priority, type, permission, images);
     }
 
     @Override
@@ -30,6 +30,9 @@ import ninja.leaping.configurate.loader.ConfigurationLoader;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.args.GenericArguments;
+import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.config.DefaultConfig;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
@@ -40,8 +43,10 @@ import org.spongepowered.api.event.game.state.GameStartedServerEvent;
 import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.event.server.ClientPingServerEvent;
+import org.spongepowered.api.network.status.Favicon;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.service.user.UserStorageService;
+import org.spongepowered.api.text.Text;
 
 import java.io.File;
 import java.io.IOException;
@@ -51,7 +56,9 @@ import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Plugin(
         id = "advancedserverlisticons",
@@ -64,6 +71,7 @@ import java.util.UUID;
 public class AdvancedServerListIconsSponge implements AdvancedServerListIcons {
 
     @Inject private Logger logger;
+    private java.util.logging.Logger commonLogger;
 
     @Inject
     @DefaultConfig(sharedRoot = false)
@@ -75,23 +83,42 @@ public class AdvancedServerListIconsSponge implements AdvancedServerListIcons {
 
     private DatabaseManager databaseManager;
     private ImageHandler imageHandler;
+    private FaviconCache<Favicon> faviconCache;
+
+    private boolean proxyMode;
 
     private UserStorageService userStorageService;
 
+    private final AdminCommands adminCommands = new AdminCommands();
+
     @Listener
     public void onServerStart(GameStartedServerEvent event) {
+        commonLogger = Slf4jHandler.createLogger(logger);
         AdvancedServerListIcons.setInstance(this);
-        imageHandler = new ImageHandler();
 
         loadConfig();
 
         userStorageService = Sponge.getServiceManager().provide(UserStorageService.class).get();
 
+        CommandSpec adminCommand = CommandSpec.builder()
+                .description(Text.of("Administers Advanced Server List Icons"))
+                .permission(AdminCommands.PERMISSION)
+                .arguments(GenericArguments.optional(GenericArguments.remainingJoinedStrings(Text.of("args"))))
+                .executor((src, args) -> {
+                    Optional<String> arguments = args.getOne("args");
+                    adminCommands.handle(arguments.map(value -> value.split(" ")).orElse(new String[0]), message -> src.sendMessage(Text.of(message)));
+                    return CommandResult.success();
+                })
+                .build();
+        Sponge.getCommandManager().register(this, adminCommand, "asli", "advancedserverlisticons");
     }
 
     @Listener
     public void onServerReload(GameReloadEvent event) {
-        databaseManager.disconnect();
+        if (databaseManager != null) {
+            databaseManager.disconnect();
+            databaseManager = null;
+        }
         loadConfig();
     }
 
@@ -106,12 +133,48 @@ public class AdvancedServerListIconsSponge implements AdvancedServerListIcons {
             ConfigurationNode node = configManager.load();
             node.getOptions().setShouldCopyDefaults(true);
 
+            proxyMode = node.getNode("proxy-mode").getBoolean(false);
+            if (proxyMode) {
+                // The proxy answers pings and records joins, so there is no database or head to load here.
+                if (imageHandler != null) {
+                    imageHandler.shutdown();
+                    imageHandler = null;
+                    faviconCache = null;
+                }
+                configManager.save(node);
+                logger.info("Proxy mode is enabled, leaving server list icons to the proxy.");
+                return;
+            }
+
+            if (imageHandler == null) {
+                imageHandler = new ImageHandler();
+                faviconCache = new FaviconCache<>(imageHandler, image -> Sponge.getRegistry().loadFavicon(image));
+            }
+
             String user = node.getNode("jdbc-username").getString("root");
             String password = node.getNode("jdbc-password").getString("password");
             String jdbcUrl = node.getNode("jdbc-url").getString("jdbc:mysql://localhost:3306/minecraft");
+            String replicaJdbcUrl = node.getNode("jdbc-replica-url").getString("");
+
+            DatabaseManager.PoolSettings poolSettings = new DatabaseManager.PoolSettings()
+                    .setMaximumPoolSize(node.getNode("pool", "maximum-size").getInt(10))
+                    .setMinimumIdle(node.getNode("pool", "minimum-idle").getInt(2))
+                    .setConnectionTimeout(node.getNode("pool", "connection-timeout-ms").getLong(5000))
+                    .setIdleTimeout(node.getNode("pool", "idle-timeout-ms").getLong(600000))
+                    .setMaxLifetime(node.getNode("pool", "max-lifetime-ms").getLong(1800000))
+                    .setReplicaMaxLag(node.getNode("pool", "replica-max-lag-seconds").getLong(10))
+                    .setReplicaCheckInterval(node.getNode("pool", "replica-check-interval-ms").getLong(5000))
+                    .setReplicaConnectionTimeout(node.getNode("pool", "replica-connection-timeout-ms").getLong(500));
+
+            databaseManager = new DatabaseManager(jdbcUrl, replicaJdbcUrl, user, password, poolSettings);
+
+            long maxMegabytes = node.getNode("head-cache", "max-megabytes").getLong(256);
+            imageHandler.getDiskCache().setLimits(maxMegabytes * 1024 * 1024, node.getNode("head-cache", "max-files").getInt(100000));
 
-            databaseManager = new DatabaseManager(jdbcUrl, user, password);
-            databaseManager.connect();
+            long refreshAhead = node.getNode("head-refresh", "refresh-ahead-minutes").getLong(120);
+            long inactiveDays = node.getNode("head-refresh", "inactive-days").getLong(30);
+            imageHandler.getRefreshScheduler().setPeriods(TimeUnit.MINUTES.toMillis(refreshAhead), TimeUnit.DAYS.toMillis(inactiveDays));
+            imageHandler.setMaxConcurrentRefreshes(node.getNode("head-refresh", "max-concurrent").getInt(2));
 
             for (Map.Entry<Object, ? extends ConfigurationNode> definitionKey : node.getNode("definitions").getChildrenMap().entrySet()) {
                 int priority = definitionKey.getValue().getNode("priority").getInt(1);
@@ -119,35 +182,59 @@ public class AdvancedServerListIconsSponge implements AdvancedServerListIcons {
                 String permission = definitionKey.getValue().getNode("permission").getString();
                 List<String> images = definitionKey.getValue().getNode("images").getList(new TypeToken<String>() {});
 
-                SpongeImageDetails imageDetails = new SpongeImageDetails(priority, type, permission, images);
+                SpongeImageDetails imageDetails = new SpongeImageDetails(definitionKey.getKey().toString(), priority, type, permission, images);
                 imageHandler.addImage(imageDetails);
             }
 
             configManager.save(node);
+
+            // Connect off the main thread, pings get the default icon until this is done.
+            new StartupTask(this).start();
         } catch (IOException | ObjectMappingException e) {
-            e.printStackTrace();
+            logger.error("Failed to load the config", e);
         }
     }
 
     @Listener
     public void onServerStopping(GameStoppingServerEvent event) {
-        databaseManager.disconnect();
+        if (imageHandler != null) {
+            imageHandler.shutdown();
+        }
+        if (databaseManager != null) {
+            databaseManager.disconnect();
+        }
     }
 
     @Listener
     public void onPlayerJoin(ClientConnectionEvent.Join event, @Getter("getTargetEntity") Player player) {
+        if (proxyMode) {
+            return;
+        }
+        getImageHandler().getRefreshScheduler().markSeen(player.getUniqueId());
         getDatabaseManager().addPlayerAddress(player.getUniqueId(), player.getConnection().getAddress().getAddress().getHostAddress());
     }
 
     @Listener
     public void onServerListPing(ClientPingServerEvent event) {
+        if (proxyMode) {
+            return;
+        }
         UUID uuid = getDatabaseManager().getPlayerUUID(event.getClient().getAddress().getAddress().getHostAddress());
         if (uuid != null) {
-            User user = userStorageService.get(uuid).get();
+            Object profileEvent = PingTracer.begin(PingTracer.Stage.PROFILE_RESOLVE);
+            Optional<User> userOpt = userStorageService.get(uuid);
+            PingTracer.end(profileEvent, uuid, null, userOpt.isPresent() ? "found" : "missing");
+            if (!userOpt.isPresent()) {
+                return;
+            }
+            User user = userOpt.get();
             try {
-                event.getResponse().setFavicon(Sponge.getRegistry().loadFavicon(getImageHandler().getImageForUser(user.getUniqueId(), user.getName())));
+                Favicon favicon = faviconCache.getFavicon(user.getUniqueId(), user.getName());
+                if (favicon != null) {
+                    event.getResponse().setFavicon(favicon);
+                }
             } catch (Exception e) {
-                e.printStackTrace();
+                logger.error("Failed to create icon for " + uuid, e);
             }
         }
     }
@@ -170,4 +257,9 @@ public class AdvancedServerListIconsSponge implements AdvancedServerListIcons {
     public File getDataFolder() {
         return defaultConfig.toFile().getParentFile();
     }
+
+    @Override
+    public java.util.logging.Logger getLogger() {
+        return commonLogger;
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Me4502 (Madeline Miller)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.me4502.advancedserverlisticons;
+
+import org.slf4j.Logger;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Slf4jHandler.
+ *
+ * Forwards records logged by the common code to the plugin logger that
+ * Sponge injects, so they show up under the plugin in the server log.
+ */
+public class Slf4jHandler extends Handler {
+
+    private final Logger logger;
+
+    public Slf4jHandler(Logger logger) {
+        this.logger = logger;
+        setFormatter(new SimpleFormatter());
+    }
+
+    /**
+     * Creates a logger that writes only to the given plugin logger.
+     *
+     * @param logger The plugin logger
+     * @return The forwarding logger
+     */
+    public static java.util.logging.Logger createLogger(Logger logger) {
+        java.util.logging.Logger forwarding = java.util.logging.Logger.getAnonymousLogger();
+        forwarding.setUseParentHandlers(false);
+        // The plugin logger decides what is shown.
+        forwarding.setLevel(Level.ALL);
+        forwarding.addHandler(new Slf4jHandler(logger));
+        return forwarding;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (record == null) {
+            return;
+        }
+        String message = getFormatter().formatMessage(record);
+        Throwable thrown = record.getThrown();
+        int level = record.getLevel().intValue();
+        if (level >= Level.SEVERE.intValue()) {
+            logger.error(message, thrown);
+        } else if (level >= Level.WARNING.intValue()) {
+            logger.warn(message, thrown);
+        } else if (level >= Level.INFO.intValue()) {
+            logger.info(message, thrown);
+        } else if (level >= Level.FINE.intValue()) {
+            logger.debug(message, thrown);
+        } else {
+            logger.trace(message, thrown);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -26,8 +26,8 @@ import java.util.UUID;
 
 public class SpongeImageDetails extends ImageDetails {
 
-    public SpongeImageDetails(int priority, ImageType type, String permission, List<String> images) {
-        super(priority, type, permission, images);
+    public SpongeImageDetails(String name, int priority, ImageType type, String permission, List<String> images) {
+        super(name, priority, type, permission, images);
     }
 
     @Override